@@ -0,0 +1,31 @@
+// JMH benchmarks for the plugin's parsing, serialization and library I/O code. They only use classes that do
+// not need a running IDE or network access.
+//
+// Run with: ./gradlew :benchmarks:jmh
+// Results are written as JSON to benchmarks/build/results/jmh/results.json
+
+plugins {
+  id("java")
+  id("me.champeau.jmh") version "0.7.2"
+}
+
+repositories {
+  mavenCentral()
+}
+
+dependencies {
+  jmh(project(":"))
+}
+
+java {
+  sourceCompatibility = JavaVersion.VERSION_17
+}
+
+jmh {
+  jmhVersion.set("1.37")
+  fork.set(1)
+  warmupIterations.set(3)
+  iterations.set(5)
+  resultFormat.set("JSON")
+  resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+}
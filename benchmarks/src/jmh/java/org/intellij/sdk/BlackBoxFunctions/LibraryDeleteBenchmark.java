@@ -0,0 +1,65 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Deleting one function from the middle of the library file, by tombstoning its block in place and by the
+// full rewrite FunctionDeleter falls back to, through the same LibraryFile calls the library writer makes. Each
+// invocation works on a fresh copy of the library.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LibraryDeleteBenchmark {
+    @Param({"10", "1000", "10000", "100000"})
+    public int functionCount;
+
+    private byte[] library;
+    private Path libraryFilePath;
+    private String functionName;
+    private String uid;
+    private long offset;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        library = SyntheticLibrary.library(functionCount);
+        libraryFilePath = Files.createTempFile("generated_functions", ".py");
+        int index = functionCount / 2;
+        functionName = SyntheticLibrary.functionName(index);
+        FunctionRecord record = FunctionLibraryParser.parse(library).get(index);
+        uid = record.getUid();
+        offset = record.getOffset();
+    }
+
+    @Setup(Level.Invocation)
+    public void resetLibrary() throws IOException {
+        Files.write(libraryFilePath, library);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(libraryFilePath);
+    }
+
+    @Benchmark
+    public int tombstone() throws IOException {
+        return LibraryFile.tombstone(libraryFilePath, offset, functionName, uid);
+    }
+
+    @Benchmark
+    public void rewrite() throws IOException {
+        LibraryFile.rewrite(libraryFilePath, lines -> FunctionLibraryParser.removeTombstones(FunctionLibraryParser.removeFunction(lines, functionName, uid)));
+    }
+}
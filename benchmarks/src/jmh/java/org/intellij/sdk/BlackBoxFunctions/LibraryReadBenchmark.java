@@ -0,0 +1,62 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// Reading a library of generated functions from disk: the single-pass parser behind the registry, and the
+// definition, prompt and UID lists FunctionWriter derives from it
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LibraryReadBenchmark {
+    @Param({"10", "1000", "10000", "100000"})
+    public int functionCount;
+
+    private Path libraryFilePath;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        libraryFilePath = Files.createTempFile("generated_functions", ".py");
+        Files.write(libraryFilePath, SyntheticLibrary.library(functionCount));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(libraryFilePath);
+    }
+
+    @Benchmark
+    public List<FunctionRecord> parseLibrary() throws IOException {
+        return FunctionLibraryParser.parse(libraryFilePath);
+    }
+
+    @Benchmark
+    public List<String> readFunctionDefinitions() throws IOException {
+        return FunctionLibraryParser.parse(libraryFilePath).stream().map(FunctionRecord::getDef).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<String> readFunctionPrompts() throws IOException {
+        return FunctionLibraryParser.parse(libraryFilePath).stream().map(FunctionRecord::getPrompt).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<String> readFunctionUIDs() throws IOException {
+        return FunctionLibraryParser.parse(libraryFilePath).stream().map(FunctionRecord::getUid).collect(Collectors.toList());
+    }
+}
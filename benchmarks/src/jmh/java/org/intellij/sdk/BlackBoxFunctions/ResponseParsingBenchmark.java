@@ -0,0 +1,56 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Extracting the function from a model response, both from the complete text and from streamed chunks
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResponseParsingBenchmark {
+    private String response;
+    private List<String> chunks;
+    private String functionDefinition;
+
+    @Setup
+    public void setUp() {
+        response = SyntheticLibrary.response();
+        functionDefinition = "def filter_above(numbers, threshold=0.5):";
+
+        // Streamed completions arrive a few characters at a time
+        chunks = new ArrayList<>();
+        for (int i = 0; i < response.length(); i += 4) {
+            chunks.add(response.substring(i, Math.min(i + 4, response.length())));
+        }
+    }
+
+    @Benchmark
+    public OpenAIClient.ProcessedChoice getFunctionFromGPT() {
+        return OpenAIClient.getFunctionFromGPT(response, "uid");
+    }
+
+    @Benchmark
+    public String streamParser() {
+        FunctionStreamParser parser = new FunctionStreamParser();
+        for (String chunk : chunks) {
+            if (parser.accept(chunk)) {
+                break;
+            }
+        }
+        return parser.getFunctionText();
+    }
+
+    @Benchmark
+    public String extractFunctionName() {
+        return FunctionLibraryParser.extractFunctionName(functionDefinition);
+    }
+}
@@ -0,0 +1,45 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import java.nio.charset.StandardCharsets;
+
+// Builds generated_functions.py content and model responses in the format the plugin writes and reads
+final class SyntheticLibrary {
+    private SyntheticLibrary() {
+    }
+
+    static String functionName(int index) {
+        return "compute_value_" + index;
+    }
+
+    static String block(int index) {
+        String name = functionName(index);
+        String def = "def " + name + "(numbers, threshold=0.5):";
+        String prompt = "Return the numbers above the threshold, sorted and without duplicates, case " + index;
+        return "# " + def + " # Prompt: " + prompt + " # UID: " + String.format("%08x-0000-4000-8000-%012x", index, index) + "\n"
+                + String.format("def %s(*args, **kwargs):\n    from %s import %s\n    return %s(*args, **kwargs)\n\n", name, name, name, name);
+    }
+
+    static byte[] library(int functionCount) {
+        StringBuilder library = new StringBuilder(functionCount * 320);
+        for (int i = 0; i < functionCount; i++) {
+            library.append(block(i));
+        }
+        return library.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static String response() {
+        return "Here is the function you asked for.\n\n"
+                + "```python\n"
+                + "# Start\n"
+                + "def filter_above(numbers, threshold=0.5):\n"
+                + "    \"\"\"Return the numbers above the threshold, sorted and without duplicates.\"\"\"\n"
+                + "    result = set()\n"
+                + "    for number in numbers:\n"
+                + "        if number > threshold:\n"
+                + "            result.add(number)\n"
+                + "    return sorted(result)\n"
+                + "# End\n"
+                + "```\n\n"
+                + "The function keeps each number above the threshold once and returns them in ascending order.";
+    }
+}
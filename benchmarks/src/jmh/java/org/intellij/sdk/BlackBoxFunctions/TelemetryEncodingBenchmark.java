@@ -0,0 +1,60 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Building the JSON body of telemetry events and batch payloads. Response events carry the full raw model
+// response.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TelemetryEncodingBenchmark {
+    private final JsonEventEncoder eventEncoder = new JsonEventEncoder();
+    private String response;
+    private String sessionId;
+    private List<String> batch;
+
+    @Setup
+    public void setUp() {
+        response = SyntheticLibrary.response();
+        sessionId = "3f2b8c1e-5d4a-4e7b-9c6f-1a2b3c4d5e6f";
+        batch = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            batch.add(eventEncoder.encodeEvent("Response", sessionId, "uid" + i, 1718000000000L + i, response));
+        }
+    }
+
+    @Benchmark
+    public String escapeJson() {
+        return JsonEventEncoder.escape(response);
+    }
+
+    @Benchmark
+    public String responseEvent() {
+        return eventEncoder.encodeEvent("Response", sessionId, "uid", 1718000000000L, response);
+    }
+
+    @Benchmark
+    public String interactionEvent() {
+        return eventEncoder.encodeEvent("Interaction", sessionId, null, 1718000000000L, "Cleared text area");
+    }
+
+    @Benchmark
+    public String arrayBatch() {
+        return JsonEventEncoder.encodeArray(batch);
+    }
+
+    @Benchmark
+    public String ndjsonBatch() {
+        return JsonEventEncoder.encodeNdjson(batch);
+    }
+}
@@ -15,6 +15,7 @@ repositories {
 
 dependencies {
   implementation("io.github.sashirestela:simple-openai:2.3.2")
+  testImplementation("junit:junit:4.13.2")
 }
 
 java {
@@ -1,20 +1,132 @@
 from flask import Flask, request, jsonify
 import csv
+import queue
+import threading
 import time
 import json
+import zlib
 
 app = Flask(__name__)
 
 API_KEY = ''
+LOG_FILE_PATH = '/root/bbf-logging/bbf.log'
+# How long a request waits for its rows to be written before giving up with 503
+WRITE_TIMEOUT_SECONDS = 10
+# Limits on a bulk request's body, before and after gzip decompression
+app.config['MAX_CONTENT_LENGTH'] = 4 * 1024 * 1024
+MAX_DECOMPRESSED_BYTES = 32 * 1024 * 1024
 
-@app.route('/log', methods=['POST'])
-def log():
+
+class LogWriterUnavailable(Exception):
+    """The rows could not be written in time, the client should retry later."""
+
+
+class BatchTooLarge(ValueError):
+    """The decompressed batch is larger than MAX_DECOMPRESSED_BYTES."""
+
+
+class LogWriter:
+    """Appends rows to the log file from a single thread that keeps the file open.
+
+    Requests hand their rows to the writer and wait until they are written. Rows from all requests that arrive
+    while the writer is busy are written together and flushed once (group commit), so throughput grows with the
+    batch size instead of the number of requests.
+    """
+
+    def __init__(self, path):
+        self.path = path
+        self.pending = queue.Queue()
+        self.thread = threading.Thread(target=self._run, name='log-writer', daemon=True)
+        self.thread.start()
+
+    def write(self, rows):
+        done = threading.Event()
+        result = {}
+        self.pending.put((rows, done, result))
+        if not done.wait(WRITE_TIMEOUT_SECONDS):
+            raise LogWriterUnavailable('Timed out waiting for the log writer')
+        if 'error' in result:
+            raise LogWriterUnavailable(str(result['error']))
+
+    def _run(self):
+        file = None
+        writer = None
+        while True:
+            batch = [self.pending.get()]
+            while True:
+                try:
+                    batch.append(self.pending.get_nowait())
+                except queue.Empty:
+                    break
+
+            # Any failure fails this batch only, the file is reopened for the next one
+            error = None
+            try:
+                if file is None:
+                    file = open(self.path, mode='a', newline='')
+                    writer = csv.writer(file)
+                for rows, _, _ in batch:
+                    writer.writerows(rows)
+                file.flush()
+            except Exception as e:
+                error = e
+                if file is not None:
+                    try:
+                        file.close()
+                    except Exception:
+                        pass
+                file = None
+                writer = None
+            for _, done, result in batch:
+                if error is not None:
+                    result['error'] = error
+                done.set()
+
+
+log_writer = None
+log_writer_lock = threading.Lock()
+
+
+def get_log_writer():
+    global log_writer
+    with log_writer_lock:
+        if log_writer is None:
+            log_writer = LogWriter(LOG_FILE_PATH)
+        return log_writer
+
+
+def is_authorized():
     auth_header = request.headers.get('Authorization')
-    if not auth_header or auth_header.split()[1] != API_KEY:
-        return jsonify({'error': 'Unauthorized'}), 401
+    return bool(auth_header) and len(auth_header.split()) == 2 and auth_header.split()[1] == API_KEY
+
+
+def read_bulk_events():
+    """Reads a batch of events sent as a JSON array or as NDJSON, optionally gzip-compressed."""
+    body = request.get_data()
+    if request.headers.get('Content-Encoding', '').lower() == 'gzip':
+        body = decompress_gzip(body)
+    text = body.decode('utf-8')
+
+    if request.mimetype in ('application/x-ndjson', 'application/ndjson'):
+        return [json.loads(line) for line in text.splitlines() if line.strip()]
+    data = json.loads(text)
+    return data if isinstance(data, list) else [data]
+
+def decompress_gzip(body):
+    """Decompresses a gzip body, refusing bodies that expand past MAX_DECOMPRESSED_BYTES."""
+    decompressor = zlib.decompressobj(16 + zlib.MAX_WBITS)
+    data = decompressor.decompress(body, MAX_DECOMPRESSED_BYTES)
+    if decompressor.unconsumed_tail:
+        raise BatchTooLarge('Decompressed batch exceeds %d bytes' % MAX_DECOMPRESSED_BYTES)
+    data += decompressor.flush()
+    if len(data) > MAX_DECOMPRESSED_BYTES:
+        raise BatchTooLarge('Decompressed batch exceeds %d bytes' % MAX_DECOMPRESSED_BYTES)
+    if not decompressor.eof:
+        raise EOFError('Compressed batch is truncated')
+    return data
 
-    data = request.json
 
+def build_log_entry(data):
     event_type = data.get('EventType', '')
     insert_text = data.get('InsertText', '')
     delete_text = data.get('DeleteText', '')
@@ -47,11 +159,48 @@ def log():
         assignment_id
     ]
 
-    with open('/root/bbf-logging/bbf.log', mode='a', newline='') as file:
-        writer = csv.writer(file)
-        writer.writerow(log_entry)
+    return log_entry
+
+@app.route('/log', methods=['POST'])
+def log():
+    if not is_authorized():
+        return jsonify({'error': 'Unauthorized'}), 401
+
+    data = request.get_json(silent=True)
+
+    # A single event object, or a batch of them as a JSON array when the plugin is configured to send arrays.
+    # Malformed requests are rejected with 400 so the client drops them instead of retrying.
+    events = data if isinstance(data, list) else [data]
+    if not events or not all(isinstance(event, dict) for event in events):
+        return jsonify({'error': 'Expected an event object or an array of event objects'}), 400
+
+    try:
+        get_log_writer().write([build_log_entry(event) for event in events])
+    except LogWriterUnavailable as e:
+        return jsonify({'error': 'Log unavailable: ' + str(e)}), 503
 
     return 'Logged', 200
 
+@app.route('/log/bulk', methods=['POST'])
+def log_bulk():
+    if not is_authorized():
+        return jsonify({'error': 'Unauthorized'}), 401
+
+    try:
+        events = read_bulk_events()
+    except BatchTooLarge as e:
+        return jsonify({'error': str(e)}), 413
+    except (OSError, EOFError, UnicodeDecodeError, ValueError, zlib.error) as e:
+        return jsonify({'error': 'Invalid batch: ' + str(e)}), 400
+
+    # Items that are not event objects are skipped and not counted
+    rows = [build_log_entry(event) for event in events if isinstance(event, dict)]
+    try:
+        get_log_writer().write(rows)
+    except LogWriterUnavailable as e:
+        return jsonify({'error': 'Log unavailable: ' + str(e)}), 503
+
+    return jsonify({'logged': len(rows), 'skipped': len(events) - len(rows)}), 200
+
 if __name__ == '__main__':
     app.run(host='0.0.0.0', port=5000)
\ No newline at end of file
@@ -1,3 +1,5 @@
 // Copyright 2000-2022 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
 
 rootProject.name = "BlackBoxFunctions"
+
+include("benchmarks")
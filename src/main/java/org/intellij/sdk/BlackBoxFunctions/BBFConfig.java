@@ -0,0 +1,73 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+// Settings from the bundled bbf.properties. The file is read once per IDE, the first time any setting is
+// needed, and shared by every project window.
+@Service(Service.Level.APP)
+public final class BBFConfig {
+    private final Properties properties;
+
+    public BBFConfig() {
+        this.properties = readPropertiesFromResources();
+    }
+
+    public static BBFConfig getInstance() {
+        return ApplicationManager.getApplication().getService(BBFConfig.class);
+    }
+
+    // The value of the setting, or null if it is missing or empty
+    public String getString(String name) {
+        String value = properties.getProperty(name);
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    // The value of a setting that must be present
+    public String getRequiredString(String name, String description) {
+        String value = getString(name);
+        if (value == null) {
+            throw new IllegalStateException(description + " not found in bbf.properties file");
+        }
+        return value;
+    }
+
+    public boolean getBoolean(String name, boolean defaultValue) {
+        String value = properties.getProperty(name);
+        return value == null || value.isBlank() ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    public long getLong(String name, long defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + name + " in bbf.properties: " + value);
+            return defaultValue;
+        }
+    }
+
+    public int getInt(String name, int defaultValue) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, getLong(name, defaultValue)));
+    }
+
+    private Properties readPropertiesFromResources() {
+        try (InputStream inputStream = getClass().getResourceAsStream("/bbf.properties")) {
+            if (inputStream == null) {
+                throw new IllegalStateException("bbf.properties file not found");
+            }
+            Properties properties = new Properties();
+            properties.load(inputStream);
+            return properties;
+        } catch (IOException e) {
+            throw new IllegalStateException("Error reading bbf.properties file", e);
+        }
+    }
+}
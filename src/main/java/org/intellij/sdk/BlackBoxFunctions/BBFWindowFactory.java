@@ -1,25 +1,37 @@
 package org.intellij.sdk.BlackBoxFunctions;
 
-import com.intellij.icons.AllIcons;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.DumbAware;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.wm.ToolWindow;
 import com.intellij.openapi.wm.ToolWindowFactory;
+import com.intellij.ui.DocumentAdapter;
+import com.intellij.ui.SearchTextField;
+import com.intellij.ui.components.JBList;
 import com.intellij.ui.components.JBScrollPane;
 import com.intellij.ui.components.JBTextArea;
 import com.intellij.ui.content.Content;
 import org.jetbrains.annotations.NotNull;
 
-import java.awt.event.ComponentAdapter;
-import java.awt.event.ComponentEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
 import java.awt.*;
-import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 final class BBFWindowFactory implements ToolWindowFactory, DumbAware {
   @Override
@@ -27,15 +39,22 @@ final class BBFWindowFactory implements ToolWindowFactory, DumbAware {
     FunctionManager functionManager = new FunctionManager();
     BBFWindowContent toolWindowContent = new BBFWindowContent(toolWindow, project, functionManager);
     JPanel contentPanel = toolWindowContent.contentPanel;
-    Content content = toolWindow.getContentManager().getFactory().createContent(contentPanel, "", false);
+    Content content = toolWindow.getContentManager().getFactory().createContent(contentPanel, "Functions", false);
 
     // Replace the existing content if it exists
     if (toolWindow.getContentManager().getContents().length > 0) {
       toolWindow.getContentManager().removeAllContents(true);
     }
 
+    content.setDisposer(toolWindowContent::dispose);
     toolWindow.getContentManager().addContent(content);
 
+    // Stage latencies and counters, see PluginMetrics
+    DiagnosticsPanel diagnosticsPanel = new DiagnosticsPanel(project);
+    Content diagnosticsContent = toolWindow.getContentManager().getFactory().createContent(diagnosticsPanel.getPanel(), "Diagnostics", false);
+    diagnosticsContent.setDisposer(diagnosticsPanel::dispose);
+    toolWindow.getContentManager().addContent(diagnosticsContent);
+
     // Register the project listener
     FunctionManager.registerProjectListener();
   }
@@ -44,21 +63,44 @@ final class BBFWindowFactory implements ToolWindowFactory, DumbAware {
     private final Project project;
     private final JPanel contentPanel = new JPanel();
     private final JTextArea textArea = new JBTextArea();
-    private final JPanel submittedTextPanel = new JPanel(new GridLayout(0, 1, 0, 10));
+    private final FunctionListModel functionListModel = new FunctionListModel();
+    private final JBList<FunctionRecord> functionList = new JBList<>(functionListModel);
+    private final SearchTextField searchField = new SearchTextField(false);
+    private final Timer searchTimer = new Timer(SEARCH_DELAY_MILLIS, e -> applySearch());
     private final PromptLogging promptLogging;
     private final OpenAIClient openAIClient;
     private final JTextArea statusLabel = new JTextArea();
     private final FunctionManager functionManager;
-    private final Map<String, String> functionPrompts = new HashMap<>();
     private String currentlyEditingFunctionName = null;
+    private final JButton submitButton = new JButton("Submit");
+    private final JButton cancelButton = new JButton("Cancel");
+    // Submissions still waiting for a response, only touched on the EDT
+    private final Set<PendingPrompt> pendingPrompts = new HashSet<>();
+    private final AtomicReference<String> partialFunction = new AtomicReference<>();
     private static final Integer FONT_SIZE = 14;
     private static final String FONT_FAMILY = "Arial";
+    private static final int SEARCH_DELAY_MILLIS = 150;
+    private static final String LOADING_STATUS = "Loading functions...";
+
+    // One submitted prompt, cancelled from the EDT while its task waits on a background thread
+    private static class PendingPrompt {
+      private volatile boolean cancelRequested = false;
+      private volatile CompletableFuture<OpenAIClient.ProcessedChoice> choice = null;
+
+      private void cancel() {
+        cancelRequested = true;
+        CompletableFuture<OpenAIClient.ProcessedChoice> future = choice;
+        if (future != null) {
+          future.cancel(true);
+        }
+      }
+    }
 
     public BBFWindowContent(ToolWindow toolWindow, Project project, FunctionManager functionManager) {
       this.project = project;
       this.functionManager = functionManager;
       this.promptLogging = new PromptLogging(project);
-      this.openAIClient = new OpenAIClient(promptLogging);
+      this.openAIClient = new OpenAIClient(promptLogging, project.getBasePath() != null ? PathManager.getPluginDirPath(project) : null);
 
       contentPanel.setLayout(new BorderLayout());
       contentPanel.add(createTextBoxPanel(), BorderLayout.NORTH);
@@ -78,30 +120,45 @@ final class BBFWindowFactory implements ToolWindowFactory, DumbAware {
       statusLabel.setFont(new Font(FONT_FAMILY, Font.PLAIN, FONT_SIZE));
       contentPanel.add(statusLabel, BorderLayout.SOUTH);
 
-      // Load existing function prompts from generated_functions.py
-      List<String> functionPrompts = functionManager.readFunctionPrompts(project);
-      List<String> functionDefinitions = functionManager.readFunctionDefinitions(project);
-      List<String> functionUIDs = functionManager.readFunctionUIDs(project);
-
-      for (int i = 0; i < functionDefinitions.size(); i++) {
-        String functionDefinition = functionDefinitions.get(i);
-        String functionName = functionManager.returnFunctionName(functionDefinition);
-        String prompt = (i < functionPrompts.size()) ? functionPrompts.get(i) : "";
-        String uid = (i < functionUIDs.size()) ? functionUIDs.get(i) : "";
-        System.out.println("Function name: " + functionName + ", Prompt: " + prompt + ", UID: " + uid);
-        this.functionPrompts.put(functionName, prompt);
+      // The panel is shown right away, the library is read and the connections are opened in the background.
+      // Submitting, searching and deleting wait for the library, the registry finds no functions until then.
+      setLibraryControlsEnabled(false);
+      ApplicationManager.getApplication().executeOnPooledThread(this::initializeInBackground);
+    }
+
+    private void initializeInBackground() {
+      // The project may have been closed before this task got a thread
+      if (project.isDisposed()) {
+        return;
+      }
+      // Open the connections first so they are ready by the time the user submits a prompt
+      promptLogging.prewarmConnection();
+      try {
+        CompletionService.getInstance().prewarmConnection();
+      } catch (RuntimeException e) {
+        System.out.println("Could not pre-warm the OpenAI connection: " + e.getMessage());
       }
 
-      // Load existing function definitions from generated_functions.py and add submitted text boxes
-      for (String functionDefinition : functionDefinitions) {
-        String functionName = functionManager.returnFunctionName(functionDefinition);
-        System.out.println("Loaded function definition: " + functionDefinition);
-        System.out.println("Function name: " + functionName);
-        addSubmittedTextBox(functionDefinition, functionName);
+      // Load existing functions into the function registry
+      if (project.isDisposed()) {
+        return;
       }
+      FunctionRegistry.getInstance(project).load();
+      List<FunctionRecord> functionRecords = functionManager.readFunctionRecords(project);
+      ApplicationManager.getApplication().invokeLater(() -> {
+        if (project.isDisposed()) {
+          return;
+        }
+        functionListModel.setAll(functionRecords);
+        setLibraryControlsEnabled(true);
+        if (!searchField.getText().isBlank()) {
+          applySearch();
+        }
+        System.out.println("Listed " + functionListModel.getTotalSize() + " functions");
+      });
 
       // Send the session ID and UIDs to the logging server
-      String uids = String.join(",", functionUIDs);
+      String uids = functionRecords.stream().map(FunctionRecord::getUid).collect(Collectors.joining(","));
       promptLogging.logSession(uids);
     }
 
@@ -133,16 +190,19 @@ final class BBFWindowFactory implements ToolWindowFactory, DumbAware {
       JPanel controlsPanel = new JPanel(new BorderLayout());
       JPanel buttonsPanel = new JPanel();
 
-      JButton submitButton = new JButton("Submit");
       submitButton.addActionListener(e -> {
         String text = textArea.getText();
         System.out.println("Prompt: " + text);
-        sendPromptToOpenAI(text);
+        sendPromptToOpenAI(text, currentlyEditingFunctionName);
 //        textArea.setText("");
         currentlyEditingFunctionName = null;
       });
       buttonsPanel.add(submitButton);
 
+      cancelButton.setEnabled(false);
+      cancelButton.addActionListener(e -> cancelPendingPrompt());
+      buttonsPanel.add(cancelButton);
+
       JButton clearButton = new JButton("Clear");
       clearButton.addActionListener(e -> {
         textArea.setText("");
@@ -164,28 +224,170 @@ final class BBFWindowFactory implements ToolWindowFactory, DumbAware {
 
     @NotNull
     private JPanel createSubmittedTextPanel() {
-      submittedTextPanel.setLayout(new BoxLayout(submittedTextPanel, BoxLayout.Y_AXIS));
-      JBScrollPane submittedTextScrollPane = new JBScrollPane(submittedTextPanel);
+      // Only the visible rows are painted, by one shared renderer
+      functionList.setCellRenderer(new FunctionListCellRenderer(new Font(FONT_FAMILY, Font.PLAIN, FONT_SIZE)));
+      functionList.setFixedCellHeight(FunctionListCellRenderer.ROW_HEIGHT);
+      functionList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+      ToolTipManager.sharedInstance().registerComponent(functionList);
+
+      functionList.addMouseListener(new MouseAdapter() {
+        @Override
+        public void mouseClicked(MouseEvent e) {
+          int index = functionList.locationToIndex(e.getPoint());
+          Rectangle rowBounds = index >= 0 ? functionList.getCellBounds(index, index) : null;
+          if (rowBounds == null || !rowBounds.contains(e.getPoint())) {
+            return;
+          }
+          if (!functionList.isEnabled()) {
+            return;
+          }
+          FunctionRecord record = functionListModel.getElementAt(index);
+          if (FunctionListCellRenderer.isDeleteHit(rowBounds, e.getX())) {
+            deleteFunction(record.getName());
+          } else {
+            recallPrompt(record);
+          }
+        }
+      });
+
+      JBScrollPane submittedTextScrollPane = new JBScrollPane(functionList);
       submittedTextScrollPane.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
       submittedTextScrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
 
+      // Filter the list by name, signature or prompt once the user pauses typing
+      searchTimer.setRepeats(false);
+      searchField.addDocumentListener(new DocumentAdapter() {
+        @Override
+        protected void textChanged(@NotNull DocumentEvent e) {
+          searchTimer.restart();
+        }
+      });
+      searchField.setBorder(BorderFactory.createEmptyBorder(0, 10, 0, 10));
+
       JPanel panel = new JPanel(new BorderLayout());
+      panel.add(searchField, BorderLayout.NORTH);
       panel.add(submittedTextScrollPane, BorderLayout.CENTER);
 
       return panel;
     }
 
-    private void sendPromptToOpenAI(String prompt) {
-      setStatus("Sending prompt to OpenAI...");
+    private void sendPromptToOpenAI(String prompt, String editingFunctionName) {
+      // Submitting a prompt that is still pending, e.g. by clicking Submit twice, joins its request
+      if (openAIClient.isPending(prompt)) {
+        setStatus("This prompt is already being processed, waiting for its response...");
+      } else {
+        setStatus("Sending prompt to OpenAI...");
+      }
+      PendingPrompt pendingPrompt = new PendingPrompt();
+      pendingPrompts.add(pendingPrompt);
+      updatePromptButtons();
+
+      // Run the request in the background so the UI stays responsive, results are handled back on the EDT
+      new Task.Backgroundable(project, "Generating function", true) {
+        private OpenAIClient.ProcessedChoice processedChoice;
 
-      // Check if currently editing a function and delete it
-      if (currentlyEditingFunctionName != null) {
-        deleteFunction(currentlyEditingFunctionName);
-        currentlyEditingFunctionName = null;
+        @Override
+        public void run(@NotNull ProgressIndicator indicator) {
+          indicator.setIndeterminate(true);
+          indicator.setText("Waiting for OpenAI response...");
+          CompletableFuture<OpenAIClient.ProcessedChoice> future = openAIClient.sendPromptToOpenAIAsync(prompt, BBFWindowContent.this::showPartialFunction);
+          pendingPrompt.choice = future;
+          if (pendingPrompt.cancelRequested) {
+            // Cancelled before the request was sent
+            future.cancel(true);
+          }
+          try {
+            while (true) {
+              try {
+                processedChoice = future.get(100, TimeUnit.MILLISECONDS);
+                return;
+              } catch (TimeoutException e) {
+                if (indicator.isCanceled() || pendingPrompt.cancelRequested) {
+                  future.cancel(true);
+                  throw new ProcessCanceledException();
+                }
+              }
+            }
+          } catch (CancellationException e) {
+            throw new ProcessCanceledException();
+          } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ProcessCanceledException();
+          } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause() != null ? e.getCause().getMessage() : e.getMessage(), e);
+          }
+        }
+
+        @Override
+        public void onSuccess() {
+          handleProcessedChoice(prompt, editingFunctionName, processedChoice);
+        }
+
+        @Override
+        public void onCancel() {
+          setStatus("Prompt cancelled.");
+          textArea.setText(prompt);
+          if (editingFunctionName != null) {
+            currentlyEditingFunctionName = editingFunctionName;
+          }
+        }
+
+        @Override
+        public void onThrowable(@NotNull Throwable error) {
+          String errorMessage = "Error: " + error.getMessage();
+          System.out.println(errorMessage);
+          setStatus(errorMessage);
+          textArea.setText(prompt);
+        }
+
+        @Override
+        public void onFinished() {
+          pendingPrompts.remove(pendingPrompt);
+          updatePromptButtons();
+        }
+      }.queue();
+    }
+
+    // Called from the streaming thread for every chunk, only the latest text is painted on the EDT
+    private void showPartialFunction(String functionText) {
+      if (partialFunction.getAndSet(functionText) == null) {
+        SwingUtilities.invokeLater(() -> {
+          String latest = partialFunction.getAndSet(null);
+          if (latest != null && !pendingPrompts.isEmpty()) {
+            statusLabel.setText("Receiving function...\n" + latest);
+          }
+        });
       }
+    }
 
-      // Send the prompt to OpenAI and process the response
-      OpenAIClient.ProcessedChoice processedChoice = openAIClient.sendPromptToOpenAI(prompt);
+    private void cancelPendingPrompt() {
+      if (pendingPrompts.isEmpty()) {
+        return;
+      }
+      for (PendingPrompt pendingPrompt : pendingPrompts) {
+        pendingPrompt.cancel();
+      }
+      setStatus("Cancelling prompt...");
+      promptLogging.logInteraction("Cancelled prompt");
+    }
+
+    private void setLibraryControlsEnabled(boolean enabled) {
+      submitButton.setEnabled(enabled);
+      searchField.setEnabled(enabled);
+      functionList.setEnabled(enabled);
+      if (!enabled) {
+        statusLabel.setText(LOADING_STATUS);
+      } else if (statusLabel.getText().equals(LOADING_STATUS)) {
+        statusLabel.setText("");
+      }
+    }
+
+    private void updatePromptButtons() {
+      cancelButton.setEnabled(!pendingPrompts.isEmpty());
+    }
+
+    private void handleProcessedChoice(String prompt, String editingFunctionName, OpenAIClient.ProcessedChoice processedChoice) {
       String codeDef = processedChoice.getDef();
       String codeContent = processedChoice.getCode();
       String rawResponse = processedChoice.getRaw();
@@ -206,17 +408,32 @@ final class BBFWindowFactory implements ToolWindowFactory, DumbAware {
           setStatus(errorMessage);
           textArea.setText("prompt");
         } else {
+          // Replace the function being edited only once its replacement has arrived
+          // A joined submission finds the replacement, with this uid, already in place
+          FunctionRecord editedRecord = editingFunctionName != null ? functionManager.findFunction(project, editingFunctionName) : null;
+          if (editedRecord != null && !editedRecord.getUid().equals(uid)) {
+            deleteFunction(editingFunctionName);
+          }
+
           String functionName = functionManager.returnFunctionName(codeDef);
 //          System.out.println("Function name: " + functionName);
-          // Check if a function with the same name already exists
-          if (functionPrompts.containsKey(functionName)) {
+          FunctionRecord existingRecord = functionManager.findFunction(project, functionName);
+          if (existingRecord != null && existingRecord.getUid().equals(uid)) {
+            // This submission joined an identical pending prompt, whose function has already been added
+            setStatus("Function '" + functionName + "' added successfully.");
+            textArea.setText("");
+          } else if (existingRecord != null) {
+            // A different function with the same name already exists
             promptLogging.logError(uid, "Function '" + functionName + "' already exists.");
             setStatus("Function '" + functionName + "' already exists. Provide a unique function name in your prompt.");
             textArea.setText(prompt);
           } else {
-            functionManager.writeToLibrary(project, codeDef, codeContent, prompt, uid);
-            functionPrompts.put(functionName, prompt);
-            addSubmittedTextBox(codeDef, functionName);
+            functionManager.writeToLibrary(project, codeDef, codeContent, prompt, uid).whenComplete((written, error) -> {
+              if (error != null) {
+                ApplicationManager.getApplication().invokeLater(() -> handleWriteFailure(functionName, uid, prompt, error));
+              }
+            });
+            addFunctionRow(functionName);
             setStatus("Function '" + functionName + "' added successfully.");
             textArea.setText("");
           }
@@ -224,6 +441,28 @@ final class BBFWindowFactory implements ToolWindowFactory, DumbAware {
       }
     }
 
+    // The function was listed right away but its library entry could not be written, take it out of the list again
+    private void handleWriteFailure(String functionName, String uid, String prompt, Throwable error) {
+      if (project.isDisposed()) {
+        return;
+      }
+      if (functionManager.findFunction(project, functionName) == null) {
+        functionListModel.remove(functionName);
+      }
+      String errorMessage = "Error: " + error.getMessage();
+      System.out.println(errorMessage);
+      promptLogging.logError(uid, error.getMessage());
+      setStatus(errorMessage);
+      if (textArea.getText().isEmpty()) {
+        textArea.setText(prompt);
+      }
+    }
+
+    public void dispose() {
+      searchTimer.stop();
+      promptLogging.dispose();
+    }
+
     public void setStatus(String status) {
       statusLabel.setText(status);
 
@@ -238,111 +477,41 @@ final class BBFWindowFactory implements ToolWindowFactory, DumbAware {
       String uid = functionManager.getFunctionUIDs(project, functionName);
       functionManager.deleteFunction(project, functionName);
 
-      // Remove the function's UI component
-      for (Component comp : submittedTextPanel.getComponents()) {
-        if (comp instanceof JPanel) {
-          JPanel containerPanel = (JPanel) comp;
-          JTextArea textArea = (JTextArea) ((JScrollPane) ((BorderLayout) ((JPanel) containerPanel.getComponent(0)).getLayout()).getLayoutComponent(BorderLayout.CENTER)).getViewport().getView();
-          if (textArea.getText().contains(functionName)) {
-            submittedTextPanel.remove(containerPanel);
-            break;
-          }
-        }
-      }
-      functionPrompts.remove(functionName);
+      // Remove the function's row
+      functionListModel.remove(functionName);
       promptLogging.logDeletion(uid, functionName);
-      updateUI();
       setStatus("Function '" + functionName + "' removed successfully.");
     }
 
-    private void addSubmittedTextBox(String text, String functionName) {
-      System.out.println("Adding submitted text box for function '" + functionName + "'");
-
-      JPanel containerPanel = new JPanel();
-      containerPanel.setLayout(new BoxLayout(containerPanel, BoxLayout.Y_AXIS));
-
-      JPanel submittedTextPanel = new JPanel(new BorderLayout());
-      submittedTextPanel.setBorder(BorderFactory.createCompoundBorder(
-              BorderFactory.createMatteBorder(1, 1, 1, 1, Color.GRAY),
-              BorderFactory.createEmptyBorder(5, 5, 5, 5)));
-      submittedTextPanel.setMaximumSize(new Dimension(Integer.MAX_VALUE, 60)); // Set a maximum height for the panel
-
-      String functionDefinition = text.replace("def ", "");
-
-      JTextArea submittedTextArea = new JTextArea(functionDefinition);
-      submittedTextArea.setEditable(false);
-      submittedTextArea.setLineWrap(true);
-      submittedTextArea.setWrapStyleWord(true);
-      submittedTextArea.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
-      submittedTextArea.setBackground(null);
-      submittedTextArea.setFont(new Font(FONT_FAMILY, Font.PLAIN, FONT_SIZE));
-
-      String prompt = functionPrompts.get(functionName);
-      if (prompt != null) {
-        submittedTextPanel.setToolTipText("Prompt: " + prompt);
-
-        // Add mouse listener to recall the prompt on click
-        submittedTextArea.addMouseListener(new MouseAdapter() {
-          @Override
-          public void mouseClicked(MouseEvent e) {
-            textArea.setText("");
-            textArea.setText(prompt);
-            currentlyEditingFunctionName = functionName;
-            setStatus("Prompt for function '" + functionName + "' loaded for editing.");
-            String uid = functionManager.getFunctionUIDs(project, functionName);
-            promptLogging.logRecall(uid, prompt);
-          }
-        });
-      } else {
-        System.out.println("No prompt found for function '" + functionName + "'");
+    private void addFunctionRow(String functionName) {
+      FunctionRecord record = functionManager.findFunction(project, functionName);
+      if (record != null) {
+        functionListModel.add(record);
+        if (!searchField.getText().isBlank()) {
+          applySearch();
+        }
+        int index = functionListModel.indexOf(functionName);
+        if (index >= 0) {
+          functionList.ensureIndexIsVisible(index);
+        }
       }
+    }
 
-      JScrollPane submittedTextScrollPane = new JBScrollPane(submittedTextArea);
-      submittedTextScrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_NEVER);
-      submittedTextScrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
-      submittedTextScrollPane.setBorder(BorderFactory.createEmptyBorder());
-      submittedTextScrollPane.setOpaque(false);
-      submittedTextScrollPane.getViewport().setOpaque(false);
-
-      JButton deleteButton = new JButton(AllIcons.Actions.GC);
-      deleteButton.setPreferredSize(new Dimension(32, 46));
-      deleteButton.setMargin(new Insets(0, 0, 0, 0));
-      deleteButton.addActionListener(e -> deleteFunction(functionName));
-
-      JPanel buttonPanel = new JPanel(new BorderLayout());
-      buttonPanel.add(deleteButton, BorderLayout.SOUTH);
-
-      submittedTextPanel.add(submittedTextScrollPane, BorderLayout.CENTER);
-      submittedTextPanel.add(buttonPanel, BorderLayout.EAST);
-
-      containerPanel.add(submittedTextPanel);
-
-      containerPanel.add(Box.createVerticalStrut(5)); // Add a vertical strut of 5 pixels
-
-      this.submittedTextPanel.add(containerPanel);
-      updateUI();
-
-      // Add a ComponentListener to adjust the size when the panel is resized
-      submittedTextPanel.addComponentListener(new ComponentAdapter() {
-        @Override
-        public void componentResized(ComponentEvent e) {
-          Dimension preferredSize = new Dimension(submittedTextPanel.getWidth() - deleteButton.getPreferredSize().width - 20,
-                  submittedTextArea.getPreferredSize().height);
-          submittedTextArea.setPreferredSize(preferredSize);
-          submittedTextArea.revalidate();
-        }
-      });
+    private void applySearch() {
+      String query = searchField.getText();
+      functionListModel.setFilter(query.isBlank() ? null : FunctionRegistry.getInstance(project).search(query));
     }
 
-    private void updateUI() {
-      SwingUtilities.invokeLater(() -> {
-        this.submittedTextPanel.revalidate();
-        this.submittedTextPanel.repaint();
-        if (this.submittedTextPanel.getParent() != null) {
-          this.submittedTextPanel.getParent().revalidate();
-          this.submittedTextPanel.getParent().repaint();
-        }
-      });
+    // Loads the function's prompt into the text area so it can be edited and resubmitted
+    private void recallPrompt(FunctionRecord record) {
+      if (record.getPrompt().isEmpty()) {
+        System.out.println("No prompt found for function '" + record.getName() + "'");
+        return;
+      }
+      textArea.setText(record.getPrompt());
+      currentlyEditingFunctionName = record.getName();
+      setStatus("Prompt for function '" + record.getName() + "' loaded for editing.");
+      promptLogging.logRecall(record.getUid(), record.getPrompt());
     }
   }
 }
@@ -0,0 +1,16 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import io.github.sashirestela.openai.domain.chat.Chat;
+import io.github.sashirestela.openai.domain.chat.ChatRequest;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+// The chat completion calls OpenAIClient makes, implemented by the shared CompletionService
+interface ChatCompletions {
+    CompletableFuture<Chat> complete(Object owner, ChatRequest chatRequest, int promptTokens, int maxCompletionTokens);
+
+    CompletableFuture<Stream<Chat>> completeStream(Object owner, ChatRequest chatRequest, int promptTokens, int maxCompletionTokens);
+
+    <T> CompletableFuture<T> enforceDeadline(CompletableFuture<T> future);
+}
@@ -0,0 +1,75 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+// Stops sending requests to an upstream that keeps failing. After failureThreshold consecutive failures the
+// breaker opens and rejects calls for openMillis, then lets a single trial call through. The trial closes the
+// breaker again when it succeeds and reopens it when it fails.
+public class CircuitBreaker {
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAtMillis = 0;
+    private boolean trialInFlight = false;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = Math.max(0, openMillis);
+    }
+
+    // Returns false if the call must not be made. Every acquired call must end with recordSuccess,
+    // recordFailure or release.
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAtMillis < openMillis) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialInFlight) {
+                return false;
+            }
+            trialInFlight = true;
+        }
+        return true;
+    }
+
+    // The upstream answered, even if the answer was an error that retrying would not fix
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                System.out.println("Circuit breaker opened after " + consecutiveFailures + " consecutive failures");
+            }
+            state = State.OPEN;
+            openedAtMillis = System.currentTimeMillis();
+        }
+        trialInFlight = false;
+    }
+
+    // Ends an acquired call without an outcome, e.g. when the caller cancelled it
+    public synchronized void release() {
+        trialInFlight = false;
+    }
+
+    public synchronized boolean isOpen() {
+        return state == State.OPEN && getRemainingOpenMillis() > 0;
+    }
+
+    public synchronized long getRemainingOpenMillis() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, openMillis - (System.currentTimeMillis() - openedAtMillis));
+    }
+}
@@ -0,0 +1,269 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import com.intellij.util.concurrency.AppExecutorUtil;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Long-lived Python process that compiles functions to .pyc files, one worker per interpreter.
+// Jobs are sent as "<source>\t<target>" lines on stdin and answered with "OK" or "ERR <message>" lines on stdout,
+// a "MAGIC" line asks for the interpreter's bytecode magic number.
+// The process is started on first use and restarted if it has exited. A worker that does not answer within
+// REPLY_TIMEOUT_SECONDS is killed and started again for the next job, and shared workers that have not been used for
+// IDLE_SHUTDOWN_MINUTES are stopped.
+public class CompileWorker {
+    private static final Map<String, CompileWorker> WORKERS = new HashMap<>();
+    private static final String COMPILE_WORKER_SCRIPT = "compile_worker.py";
+    private static final long REPLY_TIMEOUT_SECONDS = 30;
+    private static final long IDLE_SHUTDOWN_MINUTES = 10;
+    // Queued by the output reader once the process has closed its output
+    private static final String END_OF_OUTPUT = new String("EOF");
+    private static boolean idleSweepScheduled = false;
+
+    private final String pythonExecutable;
+    private volatile long lastUsedNanos = System.nanoTime();
+    private Process process;
+    private BufferedWriter processInput;
+    private BlockingQueue<String> processReplies;
+    private String magicNumber;
+
+    private CompileWorker(String pythonExecutable) {
+        this.pythonExecutable = pythonExecutable;
+    }
+
+    public static class CompileResult {
+        private final boolean success;
+        private final String message;
+
+        public CompileResult(boolean success, String message) {
+            this.success = success;
+            this.message = message;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    public static synchronized CompileWorker forInterpreter(String pythonExecutable) {
+        CompileWorker worker = WORKERS.computeIfAbsent(pythonExecutable, CompileWorker::new);
+        // Marked as used while the lock is held, so the idle sweep cannot stop it before the caller's job
+        worker.lastUsedNanos = System.nanoTime();
+        if (!idleSweepScheduled) {
+            idleSweepScheduled = true;
+            AppExecutorUtil.getAppScheduledExecutorService().scheduleWithFixedDelay(
+                    CompileWorker::shutdownIdleWorkers, IDLE_SHUTDOWN_MINUTES, IDLE_SHUTDOWN_MINUTES, TimeUnit.MINUTES);
+        }
+        return worker;
+    }
+
+    // A worker that is not shared, for bulk jobs that compile in parallel. The caller must shut it down.
+    public static CompileWorker createDedicated(String pythonExecutable) {
+        return new CompileWorker(pythonExecutable);
+    }
+
+    // Stops the shared worker of an interpreter that is no longer used
+    public static synchronized void shutdownInterpreter(String pythonExecutable) {
+        CompileWorker worker = WORKERS.remove(pythonExecutable);
+        if (worker != null) {
+            worker.shutdown();
+        }
+    }
+
+    // Stops the shared workers of interpreters that have not been used for a while, e.g. after the project
+    // interpreter was changed
+    private static void shutdownIdleWorkers() {
+        List<CompileWorker> idleWorkers = new ArrayList<>();
+        synchronized (CompileWorker.class) {
+            long idleSinceNanos = System.nanoTime() - TimeUnit.MINUTES.toNanos(IDLE_SHUTDOWN_MINUTES);
+            for (Iterator<CompileWorker> iterator = WORKERS.values().iterator(); iterator.hasNext(); ) {
+                CompileWorker worker = iterator.next();
+                if (worker.lastUsedNanos - idleSinceNanos < 0) {
+                    iterator.remove();
+                    idleWorkers.add(worker);
+                }
+            }
+        }
+        for (CompileWorker worker : idleWorkers) {
+            System.out.println("Stopping idle compile worker for " + worker.pythonExecutable);
+            worker.shutdown();
+        }
+    }
+
+    public synchronized CompileResult compile(Path sourceFilePath, Path targetFilePath) {
+        String request = sourceFilePath + "\t" + targetFilePath;
+        if (request.indexOf('\n') >= 0 || request.indexOf('\r') >= 0) {
+            return new CompileResult(false, "Unsupported file path: " + request);
+        }
+        return sendRequest(request);
+    }
+
+    // The interpreter's bytecode magic number as a hex string, or null if the worker cannot be reached
+    public synchronized String getMagicNumber() {
+        if (magicNumber == null) {
+            CompileResult result = sendRequest("MAGIC");
+            if (result.isSuccess() && !result.getMessage().isEmpty()) {
+                magicNumber = result.getMessage();
+            }
+        }
+        return magicNumber;
+    }
+
+    private CompileResult sendRequest(String request) {
+        lastUsedNanos = System.nanoTime();
+        // A worker that crashed mid-job is restarted and the job retried once
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                ensureStarted();
+                processInput.write(request);
+                processInput.newLine();
+                processInput.flush();
+
+                String reply = processReplies.poll(REPLY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                if (reply == null) {
+                    // Stuck, e.g. on a pathological source file. Retrying would most likely hang again.
+                    System.err.println("Compile worker did not answer within " + REPLY_TIMEOUT_SECONDS + " seconds, killing it");
+                    killProcess();
+                    return new CompileResult(false, "Compilation did not finish within " + REPLY_TIMEOUT_SECONDS + " seconds");
+                }
+                if (reply == END_OF_OUTPUT) {
+                    System.err.println("Compile worker exited unexpectedly, restarting");
+                    recordUnexpectedExit();
+                    stopProcess();
+                    continue;
+                }
+                if (reply.equals("OK") || reply.startsWith("OK ")) {
+                    return new CompileResult(true, reply.substring(2).trim());
+                }
+                return new CompileResult(false, reply.startsWith("ERR ") ? reply.substring(4).trim() : reply);
+            } catch (IOException e) {
+                System.err.println("Error communicating with compile worker: " + e.getMessage());
+                stopProcess();
+            } catch (InterruptedException e) {
+                // The worker may still answer this job later, start from a fresh process next time
+                killProcess();
+                Thread.currentThread().interrupt();
+                return new CompileResult(false, "Compilation was interrupted");
+            }
+        }
+        return new CompileResult(false, "Compile worker could not be started for " + pythonExecutable);
+    }
+
+    public synchronized void shutdown() {
+        if (process != null && process.isAlive()) {
+            try {
+                processInput.write("QUIT");
+                processInput.newLine();
+                processInput.flush();
+            } catch (IOException e) {
+                // The process is stopped below regardless
+            }
+        }
+        stopProcess();
+    }
+
+    private void ensureStarted() throws IOException {
+        if (process != null && process.isAlive()) {
+            return;
+        }
+        stopProcess();
+
+        Path scriptPath = extractWorkerScript();
+        ProcessBuilder processBuilder = new ProcessBuilder(pythonExecutable, "-u", scriptPath.toString());
+        processBuilder.environment().put("PYTHONIOENCODING", "utf-8");
+        processBuilder.redirectError(ProcessBuilder.Redirect.DISCARD);
+        process = processBuilder.start();
+        processInput = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        processReplies = startOutputReader(process);
+        System.out.println("Compile worker started for " + pythonExecutable);
+    }
+
+    // Reads the process's reply lines on a separate thread, so waiting for a reply can time out
+    private BlockingQueue<String> startOutputReader(Process workerProcess) {
+        BlockingQueue<String> replies = new LinkedBlockingQueue<>();
+        BufferedReader output = new BufferedReader(new InputStreamReader(workerProcess.getInputStream(), StandardCharsets.UTF_8));
+        Thread readerThread = new Thread(() -> {
+            try (output) {
+                String line;
+                while ((line = output.readLine()) != null) {
+                    replies.add(line);
+                }
+            } catch (IOException e) {
+                // The process was stopped
+            }
+            replies.add(END_OF_OUTPUT);
+        }, "BlackBoxFunctions compile worker output");
+        readerThread.setDaemon(true);
+        readerThread.start();
+        return replies;
+    }
+
+    private void recordUnexpectedExit() {
+        PluginEvents.CompileWorkerExitEvent exitEvent = new PluginEvents.CompileWorkerExitEvent();
+        if (!exitEvent.isEnabled()) {
+            return;
+        }
+        exitEvent.interpreter = pythonExecutable;
+        exitEvent.exitCode = -1;
+        try {
+            if (process.waitFor(1, TimeUnit.SECONDS)) {
+                exitEvent.exitCode = process.exitValue();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        exitEvent.commit();
+    }
+
+    private void killProcess() {
+        if (process != null) {
+            process.destroyForcibly();
+        }
+        stopProcess();
+    }
+
+    private void stopProcess() {
+        if (process != null) {
+            process.destroy();
+            process = null;
+        }
+        processInput = null;
+        processReplies = null;
+        // The interpreter behind the path may have been replaced, ask again after a restart
+        magicNumber = null;
+    }
+
+    private static Path extractWorkerScript() throws IOException {
+        Path tempDir = Files.createTempDirectory("pytutor");
+        Path scriptPath = tempDir.resolve(COMPILE_WORKER_SCRIPT);
+        try (InputStream inputStream = CompileWorker.class.getResourceAsStream("/" + COMPILE_WORKER_SCRIPT)) {
+            if (inputStream == null) {
+                throw new IOException(COMPILE_WORKER_SCRIPT + " not found in plugin resources");
+            }
+            Files.copy(inputStream, scriptPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+        scriptPath.toFile().deleteOnExit();
+        tempDir.toFile().deleteOnExit();
+        return scriptPath;
+    }
+}
@@ -0,0 +1,420 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import io.github.sashirestela.openai.BaseSimpleOpenAI;
+import io.github.sashirestela.openai.SimpleOpenAI;
+import io.github.sashirestela.openai.domain.chat.Chat;
+import io.github.sashirestela.openai.domain.chat.ChatRequest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+// Sends the chat completions of all open projects through one OpenAI client and HTTP connection pool. At most
+// OPENAI_MAX_CONCURRENT_REQUESTS requests run at once and requests start no faster than the requests-per-minute
+// and tokens-per-minute budgets allow. Waiting requests are queued per project and the projects take turns, so a
+// busy window cannot starve the others. Retries are charged to the budgets like first attempts. A request keeps its
+// slot until its HTTP exchanges have actually ended, since cancelling a call does not abort the exchange, or until the
+// call deadline has passed.
+@Service(Service.Level.APP)
+public final class CompletionService implements Disposable, ChatCompletions {
+    private static final String MAX_CONCURRENT_REQUESTS_PROPERTY = "OPENAI_MAX_CONCURRENT_REQUESTS";
+    private static final String REQUESTS_PER_MINUTE_PROPERTY = "OPENAI_REQUESTS_PER_MINUTE";
+    private static final String TOKENS_PER_MINUTE_PROPERTY = "OPENAI_TOKENS_PER_MINUTE";
+    private static final String OPENAI_BASE_URL = "https://api.openai.com";
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration PREWARM_TIMEOUT = Duration.ofSeconds(10);
+
+    private final HttpClient httpClient;
+    private final BaseSimpleOpenAI openAI;
+    private final ResilientCaller resilientCaller;
+    private final int maxConcurrentRequests;
+    private final RateBudget requestBudget;
+    private final RateBudget tokenBudget;
+
+    // Waiting requests by owner, and the owners with waiting requests in the order they get their next turn
+    private final Map<Object, ArrayDeque<PendingRequest<?>>> queuesByOwner = new HashMap<>();
+    private final ArrayDeque<Object> ownerTurns = new ArrayDeque<>();
+    private int runningRequests = 0;
+    private boolean drainScheduled = false;
+    private boolean disposed = false;
+
+    public CompletionService() {
+        BBFConfig config = BBFConfig.getInstance();
+        String apiKey = config.getRequiredString("OPENAI_API_KEY", "API key");
+        this.httpClient = HttpClient.newBuilder().connectTimeout(CONNECT_TIMEOUT).build();
+        this.openAI = SimpleOpenAI.builder().apiKey(apiKey).baseUrl(OPENAI_BASE_URL).httpClient(httpClient).build();
+        this.resilientCaller = ResilientCaller.fromConfig(config);
+        this.maxConcurrentRequests = Math.max(1, config.getInt(MAX_CONCURRENT_REQUESTS_PROPERTY, 4));
+        this.requestBudget = new RateBudget(config.getInt(REQUESTS_PER_MINUTE_PROPERTY, 60));
+        this.tokenBudget = new RateBudget(config.getInt(TOKENS_PER_MINUTE_PROPERTY, 40_000));
+    }
+
+    public static CompletionService getInstance() {
+        return ApplicationManager.getApplication().getService(CompletionService.class);
+    }
+
+    private static class PendingRequest<T> {
+        private final Object owner;
+        private final int promptTokens;
+        private final int estimatedTokens;
+        private Function<BaseSimpleOpenAI, CompletableFuture<T>> call;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final AtomicBoolean slotReleased = new AtomicBoolean();
+        // Guarded by the service: attempts made so far, attempts whose exchange has not ended yet, and whether the
+        // caller is done with the request
+        private int attempts = 0;
+        private int attemptsInFlight = 0;
+        private boolean finished = false;
+
+        private PendingRequest(Object owner, int promptTokens, int maxCompletionTokens) {
+            this.owner = owner;
+            this.promptTokens = promptTokens;
+            this.estimatedTokens = promptTokens + maxCompletionTokens;
+        }
+    }
+
+    // Allows up to perMinute units a minute, refilled continuously, with at most a minute's worth saved up
+    private static class RateBudget {
+        private final double capacity;
+        private final double unitsPerNano;
+        private double available;
+        private long lastRefillNanos = System.nanoTime();
+
+        private RateBudget(int perMinute) {
+            this.capacity = Math.max(1, perMinute);
+            this.unitsPerNano = capacity / TimeUnit.MINUTES.toNanos(1);
+            this.available = capacity;
+        }
+
+        // Milliseconds until the units are available, or 0 if they are now
+        private long millisUntilAvailable(double units) {
+            refill();
+            double needed = Math.min(units, capacity) - available;
+            return needed <= 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis((long) Math.ceil(needed / unitsPerNano)));
+        }
+
+        private void take(double units) {
+            refill();
+            available -= Math.min(units, capacity);
+        }
+
+        // Gives back units that were reserved but not used
+        private void giveBack(double units) {
+            refill();
+            available = Math.min(capacity, available + units);
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            available = Math.min(capacity, available + (now - lastRefillNanos) * unitsPerNano);
+            lastRefillNanos = now;
+        }
+    }
+
+    // Queues a completion for the owner, usually one per project window. The prompt tokens plus the most the
+    // completion can use are reserved from the token budget when the request starts, and the unused part is given
+    // back once the usage is known.
+    @Override
+    public CompletableFuture<Chat> complete(Object owner, ChatRequest chatRequest, int promptTokens, int maxCompletionTokens) {
+        PendingRequest<Chat> request = new PendingRequest<>(owner, promptTokens, maxCompletionTokens);
+        request.call = client -> resilientCaller.call(trackAttempts(request, () -> client.chatCompletions().create(chatRequest)));
+        request.result.whenComplete((chat, throwable) -> {
+            if (chat != null && chat.getUsage() != null && chat.getUsage().getTotalTokens() != null) {
+                giveBackTokens(request, chat.getUsage().getTotalTokens());
+            }
+            finish(request);
+        });
+        return enqueue(request);
+    }
+
+    // Like complete, but the request keeps its slot until the returned stream is closed. The tokens used are
+    // taken from the usage if the API reports it, and estimated from the text read before the stream was closed
+    // otherwise.
+    @Override
+    public CompletableFuture<Stream<Chat>> completeStream(Object owner, ChatRequest chatRequest, int promptTokens, int maxCompletionTokens) {
+        PendingRequest<Stream<Chat>> request = new PendingRequest<>(owner, promptTokens, maxCompletionTokens);
+        request.call = client -> resilientCaller.call(trackAttempts(request, () -> client.chatCompletions().createStream(chatRequest)));
+        CompletableFuture<Stream<Chat>> streamResult = new CompletableFuture<>();
+        request.result.whenComplete((chatStream, throwable) -> {
+            if (throwable != null) {
+                finish(request);
+                streamResult.completeExceptionally(throwable);
+                return;
+            }
+            long[] streamedChars = {0};
+            Integer[] reportedTokens = {null};
+            // The reader and a cancelling caller can both close the stream
+            AtomicBoolean closed = new AtomicBoolean();
+            Stream<Chat> releasingStream = chatStream
+                    .peek(chunk -> {
+                        if (chunk.getUsage() != null && chunk.getUsage().getTotalTokens() != null) {
+                            reportedTokens[0] = chunk.getUsage().getTotalTokens();
+                        }
+                        if (chunk.getChoices() != null && !chunk.getChoices().isEmpty() && chunk.firstContent() != null) {
+                            streamedChars[0] += chunk.firstContent().length();
+                        }
+                    })
+                    .onClose(() -> {
+                        if (!closed.compareAndSet(false, true)) {
+                            return;
+                        }
+                        // Roughly four characters per token
+                        giveBackTokens(request, reportedTokens[0] != null ? reportedTokens[0] : request.promptTokens + (int) ((streamedChars[0] + 3) / 4));
+                        finish(request);
+                    });
+            if (!streamResult.complete(releasingStream)) {
+                releasingStream.close();
+            }
+        });
+        // Cancelling the caller's future cancels the request, and drops it from the queue if it has not started
+        streamResult.whenComplete((chatStream, throwable) -> {
+            if (streamResult.isCancelled()) {
+                request.result.cancel(true);
+            }
+        });
+        enqueue(request);
+        return streamResult;
+    }
+
+    // Counts the request's attempts and charges every retry to the budgets. Each attempt's exchange is followed
+    // to its real end: the caller gets a copy of the attempt's future, so giving up on it does not hide when the
+    // exchange finishes, and a stream that opens after the attempt was given up is closed.
+    private <T> Supplier<CompletableFuture<T>> trackAttempts(PendingRequest<T> request, Supplier<CompletableFuture<T>> attempt) {
+        return () -> {
+            synchronized (this) {
+                if (request.attempts++ > 0) {
+                    requestBudget.take(1);
+                    tokenBudget.take(request.estimatedTokens);
+                }
+            }
+            CompletableFuture<T> exchange = attempt.get();
+            synchronized (this) {
+                request.attemptsInFlight++;
+            }
+            CompletableFuture<T> handedOut = exchange.copy();
+            exchange.whenComplete((value, throwable) -> {
+                if (handedOut.isCancelled() && value instanceof Stream) {
+                    ((Stream<?>) value).close();
+                }
+                synchronized (this) {
+                    request.attemptsInFlight--;
+                }
+                releaseSlotIfSettled(request);
+            });
+            return handedOut;
+        };
+    }
+
+    private void giveBackTokens(PendingRequest<?> request, int usedTokens) {
+        synchronized (this) {
+            tokenBudget.giveBack(Math.max(0, request.estimatedTokens - usedTokens));
+        }
+    }
+
+    // Opens the TLS connection to the API ahead of the first completion, so that request can reuse it. The
+    // request carries no key and its response is ignored, it only has to reach the server.
+    public void prewarmConnection() {
+        long startNanos = System.nanoTime();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(OPENAI_BASE_URL + "/v1/models"))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .timeout(PREWARM_TIMEOUT)
+                .build();
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, throwable) -> {
+            if (throwable != null) {
+                System.out.println("Could not pre-warm the OpenAI connection: " + throwable.getMessage());
+            } else {
+                PluginMetrics.recordSince(PluginMetrics.OPENAI_PREWARM, startNanos);
+            }
+        });
+    }
+
+    public boolean isCircuitOpen() {
+        return resilientCaller.isCircuitOpen();
+    }
+
+    // Fails the future if it has not completed within the call deadline, counted from now
+    @Override
+    public <T> CompletableFuture<T> enforceDeadline(CompletableFuture<T> future) {
+        return resilientCaller.enforceDeadline(future);
+    }
+
+    // Number of requests waiting for a slot or budget, across all projects
+    public synchronized int getQueuedRequestCount() {
+        int count = 0;
+        for (ArrayDeque<PendingRequest<?>> queue : queuesByOwner.values()) {
+            count += queue.size();
+        }
+        return count;
+    }
+
+    private <T> CompletableFuture<T> enqueue(PendingRequest<T> request) {
+        synchronized (this) {
+            if (disposed) {
+                request.result.completeExceptionally(new CancellationException("Completion service disposed"));
+                return request.result;
+            }
+            ArrayDeque<PendingRequest<?>> queue = queuesByOwner.get(request.owner);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queuesByOwner.put(request.owner, queue);
+                ownerTurns.addLast(request.owner);
+            }
+            queue.addLast(request);
+        }
+        drain();
+        return request.result;
+    }
+
+    // The caller is done with the request, its slot is freed once no exchange of it is still running
+    private void finish(PendingRequest<?> request) {
+        synchronized (this) {
+            request.finished = true;
+        }
+        releaseSlotIfSettled(request);
+    }
+
+    private void releaseSlotIfSettled(PendingRequest<?> request) {
+        synchronized (this) {
+            if (!request.finished || request.attemptsInFlight > 0) {
+                return;
+            }
+        }
+        releaseSlot(request);
+    }
+
+    // Frees the request's slot, once, if it had taken one
+    private void releaseSlot(PendingRequest<?> request) {
+        if (!request.started.get() || !request.slotReleased.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (this) {
+            if (runningRequests > 0) {
+                runningRequests--;
+            }
+        }
+        drain();
+    }
+
+    // Starts waiting requests, one owner at a time, while slots and budget allow. Requests are started outside
+    // the lock because a failed start completes their future, and with it releases their slot, right away.
+    private void drain() {
+        List<PendingRequest<?>> startable = new ArrayList<>();
+        synchronized (this) {
+            while (runningRequests < maxConcurrentRequests && !ownerTurns.isEmpty()) {
+                Object owner = ownerTurns.peekFirst();
+                ArrayDeque<PendingRequest<?>> queue = queuesByOwner.get(owner);
+                PendingRequest<?> next = queue.peekFirst();
+                if (next.result.isDone()) {
+                    // Cancelled while waiting, it never took a slot
+                    queue.pollFirst();
+                    finishTurn(owner, queue, false);
+                    continue;
+                }
+
+                long waitMillis = Math.max(requestBudget.millisUntilAvailable(1), tokenBudget.millisUntilAvailable(next.estimatedTokens));
+                if (waitMillis > 0) {
+                    scheduleDrain(waitMillis);
+                    break;
+                }
+                requestBudget.take(1);
+                tokenBudget.take(next.estimatedTokens);
+                queue.pollFirst();
+                runningRequests++;
+                next.started.set(true);
+                startable.add(next);
+                finishTurn(owner, queue, true);
+            }
+        }
+        for (PendingRequest<?> request : startable) {
+            start(request);
+        }
+    }
+
+    // Moves the owner to the back of the line after it started a request, and drops it once it has nothing waiting
+    private void finishTurn(Object owner, ArrayDeque<PendingRequest<?>> queue, boolean started) {
+        if (queue.isEmpty()) {
+            queuesByOwner.remove(owner);
+            ownerTurns.pollFirst();
+        } else if (started) {
+            ownerTurns.addLast(ownerTurns.pollFirst());
+        }
+    }
+
+    private void scheduleDrain(long delayMillis) {
+        if (drainScheduled) {
+            return;
+        }
+        drainScheduled = true;
+        AppExecutorUtil.getAppScheduledExecutorService().schedule(() -> {
+            synchronized (this) {
+                drainScheduled = false;
+            }
+            drain();
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private <T> void start(PendingRequest<T> request) {
+        if (request.result.isDone()) {
+            // Cancelled just before it started
+            releaseSlot(request);
+            return;
+        }
+        // An exchange that never ends must not hold its slot for good, give it up once the call deadline has passed
+        AppExecutorUtil.getAppScheduledExecutorService().schedule(() -> releaseSlot(request), resilientCaller.getDeadlineMillis(), TimeUnit.MILLISECONDS);
+        CompletableFuture<T> call;
+        try {
+            call = request.call.apply(openAI);
+        } catch (RuntimeException e) {
+            request.result.completeExceptionally(e);
+            return;
+        }
+        call.whenComplete((value, throwable) -> {
+            if (throwable != null) {
+                request.result.completeExceptionally(throwable);
+            } else if (!request.result.complete(value) && value instanceof Stream) {
+                // The caller cancelled after the stream opened, nobody else will close it
+                ((Stream<?>) value).close();
+            }
+        });
+        request.result.whenComplete((value, throwable) -> {
+            if (request.result.isCancelled()) {
+                call.cancel(true);
+            }
+        });
+    }
+
+    @Override
+    public void dispose() {
+        List<PendingRequest<?>> waiting = new ArrayList<>();
+        synchronized (this) {
+            disposed = true;
+            for (ArrayDeque<PendingRequest<?>> queue : queuesByOwner.values()) {
+                waiting.addAll(queue);
+            }
+            queuesByOwner.clear();
+            ownerTurns.clear();
+        }
+        for (PendingRequest<?> request : waiting) {
+            request.result.cancel(true);
+        }
+    }
+}
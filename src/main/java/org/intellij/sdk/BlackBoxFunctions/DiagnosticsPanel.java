@@ -0,0 +1,89 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.ui.components.JBScrollPane;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Path;
+
+// Diagnostics tab of the tool window. Shows the latency and counter summary from PluginMetrics, refreshed while
+// the tab is visible, and exports snapshots into the plugin directory.
+public class DiagnosticsPanel {
+    private static final int REFRESH_INTERVAL_MILLIS = 2000;
+    private static final String METRICS_DIR_NAME = "metrics";
+
+    private final Project project;
+    private final JPanel panel = new JPanel(new BorderLayout());
+    private final JTextArea summaryArea = new JTextArea();
+    private final JLabel statusLabel = new JLabel(" ");
+    private final Timer refreshTimer;
+
+    public DiagnosticsPanel(Project project) {
+        this.project = project;
+
+        summaryArea.setEditable(false);
+        summaryArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JBScrollPane scrollPane = new JBScrollPane(summaryArea);
+        scrollPane.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+
+        JPanel buttonsPanel = new JPanel();
+        JButton refreshButton = new JButton("Refresh");
+        refreshButton.addActionListener(e -> refresh());
+        buttonsPanel.add(refreshButton);
+
+        JButton exportButton = new JButton("Export snapshot");
+        exportButton.addActionListener(e -> exportSnapshot());
+        buttonsPanel.add(exportButton);
+
+        JButton resetButton = new JButton("Reset");
+        resetButton.addActionListener(e -> {
+            PluginMetrics.reset();
+            refresh();
+        });
+        buttonsPanel.add(resetButton);
+
+        statusLabel.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
+
+        panel.add(buttonsPanel, BorderLayout.NORTH);
+        panel.add(scrollPane, BorderLayout.CENTER);
+        panel.add(statusLabel, BorderLayout.SOUTH);
+
+        // Only refresh while the tab is on screen
+        refreshTimer = new Timer(REFRESH_INTERVAL_MILLIS, e -> {
+            if (panel.isShowing()) {
+                refresh();
+            }
+        });
+        refreshTimer.start();
+        refresh();
+    }
+
+    public JPanel getPanel() {
+        return panel;
+    }
+
+    public void dispose() {
+        refreshTimer.stop();
+    }
+
+    private void refresh() {
+        summaryArea.setText(PluginMetrics.getSummary());
+    }
+
+    private void exportSnapshot() {
+        if (project.getBasePath() == null) {
+            statusLabel.setText("Project base path is null. Cannot export a snapshot.");
+            return;
+        }
+        try {
+            Path snapshotFilePath = PluginMetrics.exportSnapshot(PathManager.getPluginDirPath(project).resolve(METRICS_DIR_NAME));
+            statusLabel.setText("Snapshot written to " + snapshotFilePath);
+            System.out.println("Metrics snapshot written to " + snapshotFilePath);
+        } catch (IOException e) {
+            statusLabel.setText("Error writing snapshot: " + e.getMessage());
+            System.err.println("Error writing metrics snapshot: " + e.getMessage());
+        }
+    }
+}
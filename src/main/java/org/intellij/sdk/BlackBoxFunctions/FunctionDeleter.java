@@ -1,67 +1,87 @@
 package org.intellij.sdk.BlackBoxFunctions;
 
-import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
 
 public class FunctionDeleter {
+    private static final int COMPACTION_MIN_TOMBSTONES = 32;
+
     public void deleteFunction(Project project, String functionName) {
         Path baseDirPath = Path.of(Objects.requireNonNull(project.getBasePath()));
         Path functionManagerFilePath = baseDirPath.resolve(PathManager.FUNCTION_MANAGER_FILE_NAME);
         Path compiledFilePath = baseDirPath.resolve(functionName + ".pyc");
+        FunctionRegistry registry = FunctionRegistry.getInstance(project);
+        FunctionRecord removed = registry.remove(functionName);
+        PluginEvents.LibraryDeleteEvent deleteEvent = new PluginEvents.LibraryDeleteEvent();
+        deleteEvent.begin();
+        deleteEvent.functionName = functionName;
+        deleteEvent.uid = removed != null ? removed.getUid() : "";
+        deleteEvent.mode = "tombstone";
+        deleteEvent.requestThread = PluginEvents.currentThreadName();
+        deleteEvent.requestedOnEdt = PluginEvents.isOnEdt();
         try {
-            // Delete the compiled function file
+            // Delete the compiled function file and its kept source
             Files.deleteIfExists(compiledFilePath);
             System.out.println("Compiled function file deleted: " + compiledFilePath);
+            Files.deleteIfExists(PathManager.getFunctionSourcePath(project, functionName));
+        } catch (IOException e) {
+            System.err.println("Error deleting compiled function file: " + e.getMessage());
+            e.printStackTrace();
+        }
 
-            // Remove the function definition and wrapper from the function manager file
-            Path tempFile = Files.createTempFile("pytutor", "temp");
-            try (var lines = Files.lines(functionManagerFilePath)) {
-                List<String> filteredLines = lines
-//                        .filter(line -> !line.contains("# Prompt:"))
-                        .filter(line -> !line.contains("def " + functionName + "("))
-                        .filter(line -> !line.contains("from " + functionName + " import " + functionName))
-                        .filter(line -> !line.contains("return " + functionName + "(*args, **kwargs)"))
-                        .collect(Collectors.toList());
-
-                // Remove empty lines between functions
-                List<String> cleanedLines = new ArrayList<>();
-                boolean isPreviousLineEmpty = false;
-                for (String line : filteredLines) {
-                    if (line.trim().isEmpty()) {
-                        if (!isPreviousLineEmpty) {
-                            cleanedLines.add(line);
-                            isPreviousLineEmpty = true;
-                        }
-                    } else {
-                        cleanedLines.add(line);
-                        isPreviousLineEmpty = false;
-                    }
-                }
-
-                Files.write(tempFile, cleanedLines);
+        // Tombstone the function's block in place so the cost of a delete does not depend on the library size.
+        // If the block is not where the registry expects it, e.g. while its write is still pending, the writer
+        // rewrites the library without it instead. The queue applies either behind any pending appends.
+        long offset = removed != null ? removed.getOffset() : -1;
+        String uid = removed != null ? removed.getUid() : "";
+        LibraryWriteQueue.getInstance(project).delete(offset, functionName, uid).thenAccept(tombstoned -> {
+            if (tombstoned) {
+                registry.addTombstone();
+                registry.persistRemoval(functionName);
+            } else {
+                deleteEvent.mode = "rewrite";
+                registry.applyCompaction();
+            }
+        }).whenComplete((result, error) -> {
+            deleteEvent.end();
+            if (deleteEvent.shouldCommit()) {
+                deleteEvent.success = error == null;
+                deleteEvent.commit();
+            }
+            if (error != null) {
+                System.err.println("Error deleting function: " + error.getMessage());
+                registry.invalidateIndex();
+                return;
             }
-            Files.move(tempFile, functionManagerFilePath, StandardCopyOption.REPLACE_EXISTING);
             System.out.println("Function definition and wrapper removed from function manager file: " + functionName);
+            compactIfNeeded(project);
 
-            // Reload the project
-            ApplicationManager.getApplication().invokeLater(() -> {
-                ApplicationManager.getApplication().runWriteAction(() -> {
-                    FunctionManager.reloadProject(project);
-                });
-            });
-        } catch (IOException e) {
-            System.err.println("Error deleting function: " + e.getMessage());
-            e.printStackTrace();
+            // Refresh only the files that changed
+            FunctionManager.refreshChangedFiles(List.of(functionManagerFilePath, compiledFilePath));
+        });
+    }
+
+    // Compacts the library once tombstones make up a noticeable part of it. This rewrites the whole file, so it
+    // only runs every few dozen deletes.
+    private static void compactIfNeeded(Project project) {
+        FunctionRegistry registry = FunctionRegistry.getInstance(project);
+        int tombstoneCount = registry.getTombstoneCount();
+        if (tombstoneCount < COMPACTION_MIN_TOMBSTONES || tombstoneCount * 4 < registry.getFunctionCount()) {
+            return;
         }
+        LibraryWriteQueue.getInstance(project).rewrite(FunctionLibraryParser::removeTombstones).whenComplete((result, error) -> {
+            if (error != null) {
+                System.err.println("Error compacting generated functions file: " + error.getMessage());
+                return;
+            }
+            registry.applyCompaction();
+            System.out.println("Compacted generated functions file, removed " + tombstoneCount + " tombstones");
+        });
     }
 
     public static void deleteLibraryFiles(Project project) {
@@ -78,6 +98,7 @@ public class FunctionDeleter {
                         try {
                             Files.deleteIfExists(compiledFilePath);
                             System.out.println("Compiled function file deleted: " + compiledFilePath);
+                            Files.deleteIfExists(PathManager.getFunctionSourcePath(project, functionName));
                         } catch (IOException e) {
                             System.err.println("Error deleting compiled function file: " + e.getMessage());
                             e.printStackTrace();
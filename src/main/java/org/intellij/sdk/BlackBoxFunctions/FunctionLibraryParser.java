@@ -0,0 +1,210 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Parses generated_functions.py in a single pass over its bytes. Every "# def" comment line yields one
+// FunctionRecord holding the definition, prompt and UID from that same line, so the fields can never drift apart.
+//
+// A function's block is its comment line, its wrapper and the blank line after it. Deleted functions are
+// tombstoned in place: the block is overwritten with whitespace of the same length behind a "# deleted" marker,
+// which keeps the byte offsets of every other block valid until the file is compacted.
+public class FunctionLibraryParser {
+    private static final String DEF_PREFIX = "# def ";
+    private static final String TOMBSTONE_PREFIX = "# deleted";
+    private static final String PROMPT_MARKER = "# Prompt:";
+    private static final String UID_MARKER = "# UID:";
+    private static final byte[] DEF_PREFIX_BYTES = DEF_PREFIX.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TOMBSTONE_PREFIX_BYTES = TOMBSTONE_PREFIX.getBytes(StandardCharsets.UTF_8);
+
+    public static class ParsedLibrary {
+        private final List<FunctionRecord> records;
+        private final int tombstoneCount;
+
+        public ParsedLibrary(List<FunctionRecord> records, int tombstoneCount) {
+            this.records = records;
+            this.tombstoneCount = tombstoneCount;
+        }
+
+        public List<FunctionRecord> getRecords() {
+            return records;
+        }
+
+        public int getTombstoneCount() {
+            return tombstoneCount;
+        }
+    }
+
+    public static List<FunctionRecord> parse(Path generatedFunctionsFilePath) throws IOException {
+        return parseLibrary(generatedFunctionsFilePath).getRecords();
+    }
+
+    public static List<FunctionRecord> parse(byte[] content) {
+        return parseLibrary(content).getRecords();
+    }
+
+    public static ParsedLibrary parseLibrary(Path generatedFunctionsFilePath) throws IOException {
+        if (!Files.exists(generatedFunctionsFilePath)) {
+            return new ParsedLibrary(Collections.emptyList(), 0);
+        }
+        return parseLibrary(Files.readAllBytes(generatedFunctionsFilePath));
+    }
+
+    public static ParsedLibrary parseLibrary(byte[] content) {
+        List<FunctionRecord> records = new ArrayList<>();
+        int tombstoneCount = 0;
+        int lineStart = 0;
+        while (lineStart < content.length) {
+            int lineEnd = lineStart;
+            while (lineEnd < content.length && content[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            // Only decode lines that are function comments, everything else is skipped byte-wise
+            if (startsWith(content, lineStart, lineEnd, DEF_PREFIX_BYTES)) {
+                int textEnd = lineEnd > lineStart && content[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+                String line = new String(content, lineStart, textEnd - lineStart, StandardCharsets.UTF_8);
+                records.add(parseLine(line, lineStart));
+            } else if (startsWith(content, lineStart, lineEnd, TOMBSTONE_PREFIX_BYTES)) {
+                tombstoneCount++;
+            }
+            lineStart = lineEnd + 1;
+        }
+        return new ParsedLibrary(records, tombstoneCount);
+    }
+
+    // Returns the length of the function's block at the start of content, or -1 if content does not start with
+    // the comment line of that function version. A block that runs up to the end of content may continue beyond it.
+    public static int blockLength(byte[] content, int length, String functionName, String uid) {
+        int firstLineEnd = lineEnd(content, 0, length);
+        if (!startsWith(content, 0, firstLineEnd, DEF_PREFIX_BYTES)) {
+            return -1;
+        }
+        String firstLine = new String(content, 0, firstLineEnd, StandardCharsets.UTF_8).trim();
+        FunctionRecord record = parseLine(firstLine, 0);
+        if (!record.getName().equals(functionName) || !record.getUid().equals(uid)) {
+            return -1;
+        }
+
+        // The wrapper follows, then its indented body and blank lines up to the next top-level line
+        byte[] wrapperPrefix = ("def " + functionName + "(").getBytes(StandardCharsets.UTF_8);
+        boolean wrapperSeen = false;
+        int lineStart = Math.min(firstLineEnd + 1, length);
+        while (lineStart < length) {
+            int lineEnd = lineEnd(content, lineStart, length);
+            boolean partOfBlock;
+            if (!wrapperSeen && startsWith(content, lineStart, lineEnd, wrapperPrefix)) {
+                wrapperSeen = true;
+                partOfBlock = true;
+            } else {
+                partOfBlock = lineEnd == lineStart || content[lineStart] == ' ' || content[lineStart] == '\t' || content[lineStart] == '\r';
+            }
+            if (!partOfBlock) {
+                break;
+            }
+            lineStart = Math.min(lineEnd + 1, length);
+        }
+        return lineStart;
+    }
+
+    // Overwrites the block in place with a tombstone of the same length
+    public static void tombstone(byte[] block, int length) {
+        int firstLineEnd = lineEnd(block, 0, length);
+        for (int i = 0; i < length; i++) {
+            if (block[i] != '\n' && block[i] != '\r') {
+                block[i] = ' ';
+            }
+        }
+        if (firstLineEnd >= TOMBSTONE_PREFIX_BYTES.length) {
+            System.arraycopy(TOMBSTONE_PREFIX_BYTES, 0, block, 0, TOMBSTONE_PREFIX_BYTES.length);
+        }
+    }
+
+    // Drops the block of the function version with the given UID: its comment line and the wrapper, body and
+    // blank lines after it. Other blocks with the same name, e.g. a newer version appended since, are kept.
+    public static List<String> removeFunction(List<String> lines, String functionName, String uid) {
+        List<String> remainingLines = new ArrayList<>(lines.size());
+        boolean inBlock = false;
+        for (String line : lines) {
+            if (line.startsWith(DEF_PREFIX)) {
+                FunctionRecord record = parseLine(line, 0);
+                inBlock = record.getName().equals(functionName) && record.getUid().equals(uid);
+                if (inBlock) {
+                    continue;
+                }
+            } else if (inBlock && (line.isBlank() || Character.isWhitespace(line.charAt(0)) || line.startsWith("def " + functionName + "("))) {
+                // Still inside the removed block
+                continue;
+            } else {
+                inBlock = false;
+            }
+            remainingLines.add(line);
+        }
+        return remainingLines;
+    }
+
+    // Drops every tombstone and the whitespace lines that made up its block
+    public static List<String> removeTombstones(List<String> lines) {
+        List<String> compactedLines = new ArrayList<>(lines.size());
+        boolean inTombstone = false;
+        for (String line : lines) {
+            if (line.startsWith(TOMBSTONE_PREFIX)) {
+                inTombstone = true;
+            } else if (inTombstone && line.isBlank()) {
+                // Still inside the tombstoned block
+            } else {
+                inTombstone = false;
+                compactedLines.add(line);
+            }
+        }
+        return compactedLines;
+    }
+
+    public static FunctionRecord parseLine(String line, long offset) {
+        int defEnd = line.indexOf('#', 2);
+        String def = line.substring(2, defEnd >= 0 ? defEnd : line.length());
+
+        String prompt = "";
+        int promptIndex = line.indexOf(PROMPT_MARKER);
+        int uidIndex = line.indexOf(UID_MARKER);
+        if (promptIndex >= 0) {
+            int promptStart = promptIndex + PROMPT_MARKER.length();
+            prompt = (uidIndex >= promptStart ? line.substring(promptStart, uidIndex) : line.substring(promptStart)).trim();
+        }
+        String uid = uidIndex >= 0 ? line.substring(uidIndex + UID_MARKER.length()).trim() : "";
+
+        return new FunctionRecord(def, extractFunctionName(def), prompt, uid, offset);
+    }
+
+    public static String extractFunctionName(String functionDefinition) {
+        String[] parts = functionDefinition.trim().split("\\s+");
+        if (parts.length >= 2 && parts[0].equals("def")) {
+            return parts[1].split("\\(")[0];
+        }
+        return "";
+    }
+
+    private static int lineEnd(byte[] content, int start, int length) {
+        int end = start;
+        while (end < length && content[end] != '\n') {
+            end++;
+        }
+        return end;
+    }
+
+    private static boolean startsWith(byte[] content, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (content[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,49 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import com.intellij.icons.AllIcons;
+import com.intellij.ui.components.JBLabel;
+
+import javax.swing.*;
+import java.awt.*;
+
+// Paints one function row: the signature on the left and the delete icon on the right. A single instance is
+// reused for every visible row, so the list holds no components per function.
+public class FunctionListCellRenderer extends JPanel implements ListCellRenderer<FunctionRecord> {
+    public static final int DELETE_ICON_WIDTH = 32;
+    public static final int ROW_HEIGHT = 36;
+
+    private final JBLabel definitionLabel = new JBLabel();
+    private final JBLabel deleteLabel = new JBLabel();
+
+    public FunctionListCellRenderer(Font font) {
+        super(new BorderLayout());
+        setBorder(BorderFactory.createCompoundBorder(
+                BorderFactory.createEmptyBorder(0, 0, 5, 0),
+                BorderFactory.createCompoundBorder(
+                        BorderFactory.createMatteBorder(1, 1, 1, 1, Color.GRAY),
+                        BorderFactory.createEmptyBorder(0, 5, 0, 0))));
+
+        definitionLabel.setFont(font);
+        deleteLabel.setIcon(AllIcons.Actions.GC);
+        deleteLabel.setHorizontalAlignment(SwingConstants.CENTER);
+        deleteLabel.setPreferredSize(new Dimension(DELETE_ICON_WIDTH, ROW_HEIGHT));
+
+        add(definitionLabel, BorderLayout.CENTER);
+        add(deleteLabel, BorderLayout.EAST);
+    }
+
+    @Override
+    public Component getListCellRendererComponent(JList<? extends FunctionRecord> list, FunctionRecord record, int index, boolean isSelected, boolean cellHasFocus) {
+        definitionLabel.setText(record.getDef().replace("def ", ""));
+        setToolTipText(record.getPrompt().isEmpty() ? null : "Prompt: " + record.getPrompt());
+
+        setBackground(isSelected ? list.getSelectionBackground() : list.getBackground());
+        definitionLabel.setForeground(isSelected ? list.getSelectionForeground() : list.getForeground());
+        return this;
+    }
+
+    // Whether a click at x, relative to the row's bounds, hits the delete icon
+    public static boolean isDeleteHit(Rectangle rowBounds, int x) {
+        return x >= rowBounds.x + rowBounds.width - DELETE_ICON_WIDTH;
+    }
+}
@@ -0,0 +1,121 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// List model behind the tool window's function list. Rows are keyed by function name, so adding, replacing and
+// removing a function finds its row through a map instead of searching the list or its components. A filter
+// limits the visible rows to a set of function names, e.g. the matches of a search.
+public class FunctionListModel extends AbstractListModel<FunctionRecord> {
+    private final Map<String, FunctionRecord> allRecords = new LinkedHashMap<>();
+    private final List<FunctionRecord> rows = new ArrayList<>();
+    private final Map<String, Integer> rowsByName = new HashMap<>();
+    private Set<String> filter = null;
+
+    @Override
+    public int getSize() {
+        return rows.size();
+    }
+
+    @Override
+    public FunctionRecord getElementAt(int index) {
+        return rows.get(index);
+    }
+
+    public void setAll(List<FunctionRecord> records) {
+        allRecords.clear();
+        for (FunctionRecord record : records) {
+            allRecords.put(record.getName(), record);
+        }
+        rebuildRows();
+    }
+
+    // Shows only the named functions, or all of them if the filter is null
+    public void setFilter(Set<String> visibleNames) {
+        filter = visibleNames;
+        rebuildRows();
+    }
+
+    // Adds the function at the end, or updates its row if it is already listed
+    public void add(FunctionRecord record) {
+        allRecords.put(record.getName(), record);
+        Integer index = rowsByName.get(record.getName());
+        if (index != null) {
+            rows.set(index, record);
+            fireContentsChanged(this, index, index);
+            return;
+        }
+        if (filter != null && !filter.contains(record.getName())) {
+            return;
+        }
+        rowsByName.put(record.getName(), rows.size());
+        rows.add(record);
+        fireIntervalAdded(this, rows.size() - 1, rows.size() - 1);
+    }
+
+    public boolean remove(String functionName) {
+        allRecords.remove(functionName);
+        Integer index = rowsByName.remove(functionName);
+        if (index == null) {
+            return false;
+        }
+        rows.remove((int) index);
+        // Only the rows after the removed one move up
+        for (int i = index; i < rows.size(); i++) {
+            rowsByName.put(rows.get(i).getName(), i);
+        }
+        fireIntervalRemoved(this, index, index);
+        return true;
+    }
+
+    public int indexOf(String functionName) {
+        Integer index = rowsByName.get(functionName);
+        return index != null ? index : -1;
+    }
+
+    public int getTotalSize() {
+        return allRecords.size();
+    }
+
+    // Recomputes the visible rows and only reports the range that differs from the previous rows, so typing in
+    // the search field does not make the list drop and re-add every row
+    private void rebuildRows() {
+        List<FunctionRecord> previousRows = new ArrayList<>(rows);
+        rows.clear();
+        rowsByName.clear();
+        for (FunctionRecord record : allRecords.values()) {
+            if (filter == null || filter.contains(record.getName())) {
+                rowsByName.put(record.getName(), rows.size());
+                rows.add(record);
+            }
+        }
+
+        // Skip the rows that are unchanged at the start and at the end
+        int start = 0;
+        int commonLength = Math.min(previousRows.size(), rows.size());
+        while (start < commonLength && previousRows.get(start) == rows.get(start)) {
+            start++;
+        }
+        int previousEnd = previousRows.size();
+        int end = rows.size();
+        while (previousEnd > start && end > start && previousRows.get(previousEnd - 1) == rows.get(end - 1)) {
+            previousEnd--;
+            end--;
+        }
+
+        int changedCount = Math.min(previousEnd, end) - start;
+        if (changedCount > 0) {
+            fireContentsChanged(this, start, start + changedCount - 1);
+        }
+        if (end > previousEnd) {
+            fireIntervalAdded(this, start + changedCount, end - 1);
+        } else if (previousEnd > end) {
+            fireIntervalRemoved(this, start + changedCount, previousEnd - 1);
+        }
+    }
+}
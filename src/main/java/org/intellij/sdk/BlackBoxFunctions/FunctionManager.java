@@ -4,14 +4,24 @@ import com.intellij.execution.RunManagerListener;
 import com.intellij.execution.RunnerAndConfigurationSettings;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.project.ProjectUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.newvfs.RefreshQueue;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import org.jetbrains.annotations.NotNull;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class FunctionManager implements RunManagerListener {
+    private static final long REFRESH_DELAY_MILLIS = 200;
+    private static final Set<Path> pendingRefreshPaths = new LinkedHashSet<>();
+    private static boolean refreshScheduled = false;
     private final FunctionWriter functionWriter;
     private final FunctionDeleter functionDeleter;
 
@@ -20,14 +30,22 @@ public class FunctionManager implements RunManagerListener {
         this.functionDeleter = new FunctionDeleter();
     }
 
-    public void writeToLibrary(Project project, String functionDefinition, String functionCode, String prompt, String uid) {
-        functionWriter.writeToLibrary(project, functionDefinition, functionCode, prompt, uid);
+    public CompletableFuture<Boolean> writeToLibrary(Project project, String functionDefinition, String functionCode, String prompt, String uid) {
+        return functionWriter.writeToLibrary(project, functionDefinition, functionCode, prompt, uid);
     }
 
     public String returnFunctionName(String functionDefinition) {
         return FunctionWriter.extractFunctionName(functionDefinition);
     }
 
+    public List<FunctionRecord> readFunctionRecords(Project project) {
+        return FunctionRegistry.getInstance(project).getFunctions();
+    }
+
+    public FunctionRecord findFunction(Project project, String functionName) {
+        return FunctionRegistry.getInstance(project).findByName(functionName);
+    }
+
     public List<String> readFunctionDefinitions(Project project) {
         return FunctionWriter.readFunctionDefinitions(project);
     }
@@ -45,27 +63,55 @@ public class FunctionManager implements RunManagerListener {
     }
 
     public String getFunctionUIDs(Project project, String functionName) {
-        List<String> functionDefinitions = FunctionWriter.readFunctionDefinitions(project);
-        List<String> functionUIDs = FunctionWriter.readFunctionUIDs(project);
-
-        for (int i = 0; i < functionDefinitions.size(); i++) {
-            String functionDefinition = functionDefinitions.get(i);
-            String currentFunctionName = returnFunctionName(functionDefinition);
-            if (currentFunctionName.equals(functionName)) {
-                return functionUIDs.get(i);
+        FunctionRecord record = FunctionRegistry.getInstance(project).findByName(functionName);
+        return record != null ? record.getUid() : "";
+    }
+
+    // Refreshes only the given files in the VFS. Requests arriving within a short window are merged into one refresh.
+    public static void refreshChangedFiles(List<Path> changedFiles) {
+        synchronized (pendingRefreshPaths) {
+            pendingRefreshPaths.addAll(changedFiles);
+            if (refreshScheduled) {
+                return;
             }
+            refreshScheduled = true;
         }
-
-        return "";
+        AppExecutorUtil.getAppScheduledExecutorService().schedule(FunctionManager::flushPendingRefresh, REFRESH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
     }
 
-    public static void reloadProject(Project project) {
-        VirtualFile projectDir = ProjectUtil.guessProjectDir(project);
-        if (projectDir != null) {
-            RefreshQueue.getInstance().refresh(true, true, null, projectDir);
-            System.out.println("Project reloaded after writing to function file.");
-        } else {
-            System.err.println("Failed to find project directory for project: " + project.getName());
+    private static void flushPendingRefresh() {
+        List<Path> paths;
+        synchronized (pendingRefreshPaths) {
+            paths = new ArrayList<>(pendingRefreshPaths);
+            pendingRefreshPaths.clear();
+            refreshScheduled = false;
+        }
+
+        Set<VirtualFile> filesToRefresh = new LinkedHashSet<>();
+        for (Path path : paths) {
+            VirtualFile file = LocalFileSystem.getInstance().findFileByNioFile(path);
+            if (file != null) {
+                filesToRefresh.add(file);
+            } else if (path.getParent() != null) {
+                // Files the VFS does not know yet are picked up by a non-recursive refresh of their directory
+                VirtualFile parent = LocalFileSystem.getInstance().findFileByNioFile(path.getParent());
+                if (parent != null) {
+                    filesToRefresh.add(parent);
+                }
+            }
+        }
+
+        if (!filesToRefresh.isEmpty()) {
+            long startNanos = System.nanoTime();
+            PluginEvents.VfsRefreshEvent refreshEvent = new PluginEvents.VfsRefreshEvent();
+            refreshEvent.begin();
+            refreshEvent.fileCount = filesToRefresh.size();
+            refreshEvent.requestThread = PluginEvents.currentThreadName();
+            RefreshQueue.getInstance().refresh(true, false, () -> {
+                PluginMetrics.recordSince(PluginMetrics.VFS_REFRESH, startNanos);
+                refreshEvent.commit();
+            }, filesToRefresh.toArray(new VirtualFile[0]));
+            System.out.println("Refreshed " + filesToRefresh.size() + " files after library change: " + paths);
         }
     }
 
@@ -0,0 +1,39 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+// One generated function as recorded in generated_functions.py by its "# def ... # Prompt: ... # UID: ..." comment line
+public class FunctionRecord {
+    private final String def;
+    private final String name;
+    private final String prompt;
+    private final String uid;
+    private final long offset;
+
+    public FunctionRecord(String def, String name, String prompt, String uid, long offset) {
+        this.def = def;
+        this.name = name;
+        this.prompt = prompt;
+        this.uid = uid;
+        this.offset = offset;
+    }
+
+    public String getDef() {
+        return def;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getPrompt() {
+        return prompt;
+    }
+
+    public String getUid() {
+        return uid;
+    }
+
+    // Byte offset of the comment line within the generated functions file
+    public long getOffset() {
+        return offset;
+    }
+}
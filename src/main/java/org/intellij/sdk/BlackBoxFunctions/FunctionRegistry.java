@@ -0,0 +1,285 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.project.Project;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Project-level, in-memory view of the generated function library. It is loaded once by load() on a background
+// thread, from the binary library index when that is still valid and by parsing the library file otherwise. Until
+// then lookups find nothing, so callers on the EDT never wait on disk. Afterwards the registry is kept up to date by
+// FunctionWriter and FunctionDeleter. It also counts the tombstones of deleted functions that are still in the
+// library file, to decide when to compact it.
+@Service(Service.Level.PROJECT)
+public final class FunctionRegistry {
+    private final Project project;
+    private final Map<String, FunctionRecord> functionsByName = new LinkedHashMap<>();
+    private final Map<String, FunctionRecord> functionsByUid = new HashMap<>();
+    private final FunctionSearchIndex searchIndex = new FunctionSearchIndex();
+    // The search index reads every def and prompt, so it is only built once the first search needs it
+    private boolean searchIndexBuilt = false;
+    private int tombstoneCount = 0;
+    // Whether the index on disk matches the library file, only then can single changes be appended to it
+    private boolean indexCurrent = false;
+    private boolean loaded = false;
+
+    public FunctionRegistry(Project project) {
+        this.project = project;
+    }
+
+    public static FunctionRegistry getInstance(Project project) {
+        return project.getService(FunctionRegistry.class);
+    }
+
+    // All functions in the order they were added to the library
+    public synchronized List<FunctionRecord> getFunctions() {
+        return new ArrayList<>(functionsByName.values());
+    }
+
+    public synchronized FunctionRecord findByName(String functionName) {
+        return functionsByName.get(functionName);
+    }
+
+    public synchronized FunctionRecord findByUid(String uid) {
+        return functionsByUid.get(uid);
+    }
+
+    public synchronized int getFunctionCount() {
+        return functionsByName.size();
+    }
+
+    public synchronized boolean contains(String functionName) {
+        return functionsByName.containsKey(functionName);
+    }
+
+    public synchronized void add(FunctionRecord record) {
+        ensureLoaded();
+        FunctionRecord previous = functionsByName.put(record.getName(), record);
+        if (previous != null) {
+            functionsByUid.remove(previous.getUid());
+        }
+        if (!record.getUid().isEmpty()) {
+            functionsByUid.put(record.getUid(), record);
+        }
+        if (searchIndexBuilt) {
+            searchIndex.add(record);
+        }
+    }
+
+    public synchronized FunctionRecord remove(String functionName) {
+        ensureLoaded();
+        FunctionRecord removed = functionsByName.remove(functionName);
+        if (removed != null) {
+            functionsByUid.remove(removed.getUid());
+            if (searchIndexBuilt) {
+                searchIndex.remove(functionName);
+            }
+        }
+        return removed;
+    }
+
+    // Removes the function only if it is still the version with the given UID
+    public synchronized boolean removeIfCurrent(String functionName, String uid) {
+        ensureLoaded();
+        FunctionRecord current = functionsByName.get(functionName);
+        if (current == null || !current.getUid().equals(uid)) {
+            return false;
+        }
+        remove(functionName);
+        return true;
+    }
+
+    // Names of the functions whose name, signature or prompt contains the query
+    public synchronized Set<String> search(String query) {
+        if (!searchIndexBuilt) {
+            for (FunctionRecord record : functionsByName.values()) {
+                searchIndex.add(record);
+            }
+            searchIndexBuilt = true;
+        }
+        return searchIndex.search(query);
+    }
+
+    // Whether load() has completed. Until then lookups find no functions.
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    // Reads the library if it has not been loaded yet. The library is read without holding the registry lock, so
+    // lookups from the EDT are not blocked meanwhile. Must not be called on the EDT.
+    public void load() {
+        if (isLoaded()) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        LoadedLibrary library = readLibrary();
+        synchronized (this) {
+            if (!loaded) {
+                install(library);
+                PluginMetrics.recordSince(PluginMetrics.LIBRARY_READ, startNanos);
+            }
+        }
+    }
+
+    // Discards the in-memory state and loads the library again
+    public synchronized void reload() {
+        long startNanos = System.nanoTime();
+        install(readLibrary());
+        PluginMetrics.recordSince(PluginMetrics.LIBRARY_READ, startNanos);
+    }
+
+    private static class LoadedLibrary {
+        private final FunctionLibraryParser.ParsedLibrary library;
+        private final boolean indexCurrent;
+
+        private LoadedLibrary(FunctionLibraryParser.ParsedLibrary library, boolean indexCurrent) {
+            this.library = library;
+            this.indexCurrent = indexCurrent;
+        }
+    }
+
+    private LoadedLibrary readLibrary() {
+        if (project.getBasePath() == null) {
+            return new LoadedLibrary(new FunctionLibraryParser.ParsedLibrary(new ArrayList<>(), 0), false);
+        }
+        FunctionLibraryParser.ParsedLibrary library = LibraryIndex.read(getIndexFilePath(), getLibraryFilePath());
+        if (library != null) {
+            return new LoadedLibrary(library, true);
+        }
+        library = parseLibraryFile();
+        boolean written = LibraryIndex.write(getIndexFilePath(), getLibraryFilePath(), library.getRecords(), library.getTombstoneCount());
+        return new LoadedLibrary(library, written);
+    }
+
+    private void install(LoadedLibrary loadedLibrary) {
+        functionsByName.clear();
+        functionsByUid.clear();
+        searchIndex.clear();
+        searchIndexBuilt = false;
+        indexCurrent = loadedLibrary.indexCurrent;
+        tombstoneCount = loadedLibrary.library.getTombstoneCount();
+        for (FunctionRecord record : loadedLibrary.library.getRecords()) {
+            functionsByName.put(record.getName(), record);
+            if (!record.getUid().isEmpty()) {
+                functionsByUid.put(record.getUid(), record);
+            }
+        }
+        loaded = true;
+        System.out.println("Function registry loaded with " + functionsByName.size() + " functions");
+    }
+
+    // Rewrites the library index from the in-memory records. Skipped while a write is still pending, the
+    // index is then rebuilt from the library file on the next load.
+    public synchronized void persistIndex() {
+        indexCurrent = false;
+        if (project.getBasePath() == null) {
+            return;
+        }
+        ensureLoaded();
+        for (FunctionRecord record : functionsByName.values()) {
+            if (record.getOffset() < 0) {
+                return;
+            }
+        }
+        indexCurrent = LibraryIndex.write(getIndexFilePath(), getLibraryFilePath(), new ArrayList<>(functionsByName.values()), tombstoneCount);
+    }
+
+    // Adds a function that was just appended to the library file to the index. Only the new entry is written
+    // while the index is current, otherwise the whole index is rewritten.
+    public synchronized void persistAddition(FunctionRecord record) {
+        if (project.getBasePath() == null) {
+            return;
+        }
+        ensureLoaded();
+        if (indexCurrent) {
+            indexCurrent = LibraryIndex.appendRecord(getIndexFilePath(), getLibraryFilePath(), record, tombstoneCount);
+        }
+        if (!indexCurrent) {
+            persistIndex();
+        }
+    }
+
+    // Drops a function that was just tombstoned in the library file from the index, like persistAddition
+    public synchronized void persistRemoval(String functionName) {
+        if (project.getBasePath() == null) {
+            return;
+        }
+        ensureLoaded();
+        if (indexCurrent) {
+            indexCurrent = LibraryIndex.appendRemoval(getIndexFilePath(), getLibraryFilePath(), functionName, tombstoneCount);
+        }
+        if (!indexCurrent) {
+            persistIndex();
+        }
+    }
+
+    public synchronized int getTombstoneCount() {
+        ensureLoaded();
+        return tombstoneCount;
+    }
+
+    public synchronized void addTombstone() {
+        ensureLoaded();
+        tombstoneCount++;
+    }
+
+    // Takes the offsets from the compacted library file. Functions whose write is still pending keep their
+    // placeholder offset and get theirs once the append completes.
+    public synchronized void applyCompaction() {
+        ensureLoaded();
+        FunctionLibraryParser.ParsedLibrary library = parseLibraryFile();
+        for (FunctionRecord record : library.getRecords()) {
+            FunctionRecord current = functionsByName.get(record.getName());
+            if (current != null && current.getOffset() >= 0) {
+                FunctionRecord updated = new FunctionRecord(current.getDef(), current.getName(), current.getPrompt(), current.getUid(), record.getOffset());
+                functionsByName.put(updated.getName(), updated);
+                if (!updated.getUid().isEmpty()) {
+                    functionsByUid.put(updated.getUid(), updated);
+                }
+            }
+        }
+        tombstoneCount = library.getTombstoneCount();
+        persistIndex();
+    }
+
+    // Drops the library index, used when the library file was rewritten and the stored offsets no longer hold
+    public synchronized void invalidateIndex() {
+        indexCurrent = false;
+        if (project.getBasePath() != null) {
+            LibraryIndex.invalidate(getIndexFilePath());
+        }
+    }
+
+    private FunctionLibraryParser.ParsedLibrary parseLibraryFile() {
+        try {
+            FunctionLibraryParser.ParsedLibrary library = FunctionLibraryParser.parseLibrary(getLibraryFilePath());
+            System.out.println("Loaded " + library.getRecords().size() + " function records");
+            return library;
+        } catch (IOException e) {
+            System.err.println("Error reading function records: " + e.getMessage());
+            return new FunctionLibraryParser.ParsedLibrary(new ArrayList<>(), 0);
+        }
+    }
+
+    private Path getLibraryFilePath() {
+        return Path.of(project.getBasePath()).resolve(PathManager.FUNCTION_MANAGER_FILE_NAME);
+    }
+
+    private Path getIndexFilePath() {
+        return PathManager.getPluginDirPath(project).resolve(LibraryIndex.INDEX_FILE_NAME);
+    }
+
+    // A change that comes before load() reads the library first, so the change is not lost when it is installed
+    private void ensureLoaded() {
+        if (!loaded) {
+            install(readLibrary());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// Trigram index over each function's name, signature and prompt. Functions are added and removed one at a time
+// as the library changes, and a query only checks the functions that contain all of its trigrams.
+public class FunctionSearchIndex {
+    private final Map<String, String> textsByName = new HashMap<>();
+    private final Map<Long, Set<String>> namesByTrigram = new HashMap<>();
+
+    public void add(FunctionRecord record) {
+        String text = searchText(record);
+        String previousText = textsByName.get(record.getName());
+        if (text.equals(previousText)) {
+            return;
+        }
+        if (previousText != null) {
+            remove(record.getName());
+        }
+        textsByName.put(record.getName(), text);
+        for (long trigram : trigrams(text)) {
+            namesByTrigram.computeIfAbsent(trigram, key -> new HashSet<>()).add(record.getName());
+        }
+    }
+
+    public void remove(String functionName) {
+        String text = textsByName.remove(functionName);
+        if (text == null) {
+            return;
+        }
+        for (long trigram : trigrams(text)) {
+            Set<String> names = namesByTrigram.get(trigram);
+            if (names != null) {
+                names.remove(functionName);
+                if (names.isEmpty()) {
+                    namesByTrigram.remove(trigram);
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        textsByName.clear();
+        namesByTrigram.clear();
+    }
+
+    // Names of the functions whose name, signature or prompt contains the query, ignoring case
+    public Set<String> search(String query) {
+        String normalizedQuery = query.trim().toLowerCase(Locale.ROOT);
+        if (normalizedQuery.isEmpty()) {
+            return new HashSet<>(textsByName.keySet());
+        }
+
+        Set<String> matches = new HashSet<>();
+        if (normalizedQuery.length() < 3) {
+            // Too short for a trigram, the texts are short enough to check directly
+            for (Map.Entry<String, String> entry : textsByName.entrySet()) {
+                if (entry.getValue().contains(normalizedQuery)) {
+                    matches.add(entry.getKey());
+                }
+            }
+            return matches;
+        }
+
+        // Start from the rarest trigram and confirm the candidates with a substring check
+        List<Set<String>> postings = new ArrayList<>();
+        for (long trigram : trigrams(normalizedQuery)) {
+            Set<String> names = namesByTrigram.get(trigram);
+            if (names == null) {
+                return matches;
+            }
+            postings.add(names);
+        }
+        Set<String> candidates = Collections.min(postings, (a, b) -> Integer.compare(a.size(), b.size()));
+        for (String name : candidates) {
+            String text = textsByName.get(name);
+            if (text != null && text.contains(normalizedQuery)) {
+                matches.add(name);
+            }
+        }
+        return matches;
+    }
+
+    private static String searchText(FunctionRecord record) {
+        return (record.getName() + "\n" + record.getDef() + "\n" + record.getPrompt()).toLowerCase(Locale.ROOT);
+    }
+
+    // Each trigram is packed into a long, three 16-bit chars
+    private static Set<Long> trigrams(String text) {
+        Set<Long> trigrams = new HashSet<>();
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            trigrams.add(((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2));
+        }
+        return trigrams;
+    }
+}
@@ -0,0 +1,62 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+// Incrementally scans a streamed completion for the "# Start" and "# End" markers. Chunks can split a marker,
+// so each scan resumes just before the end of the previously scanned text.
+public class FunctionStreamParser {
+    public static final String START_MARKER = "# Start";
+    public static final String END_MARKER = "# End";
+
+    private final StringBuilder rawText = new StringBuilder();
+    private int scanFrom = 0;
+    private int functionStart = -1;
+    private int functionEnd = -1;
+
+    // Appends the next chunk of the completion. Returns true once the end marker has been seen.
+    public boolean accept(String chunk) {
+        if (chunk == null || chunk.isEmpty() || isEnded()) {
+            return isEnded();
+        }
+        rawText.append(chunk);
+
+        if (functionStart < 0) {
+            int startIndex = rawText.indexOf(START_MARKER, scanFrom);
+            if (startIndex < 0) {
+                scanFrom = Math.max(0, rawText.length() - START_MARKER.length() + 1);
+                return false;
+            }
+            functionStart = startIndex + START_MARKER.length();
+            scanFrom = functionStart;
+        }
+
+        int endIndex = rawText.indexOf(END_MARKER, scanFrom);
+        if (endIndex >= 0) {
+            functionEnd = endIndex;
+            // Keep the raw text up to and including the end marker, anything after it is never shown or parsed
+            rawText.setLength(endIndex + END_MARKER.length());
+            return true;
+        }
+        scanFrom = Math.max(functionStart, rawText.length() - END_MARKER.length() + 1);
+        return false;
+    }
+
+    public boolean isStarted() {
+        return functionStart >= 0;
+    }
+
+    public boolean isEnded() {
+        return functionEnd >= 0;
+    }
+
+    // The function text received so far, between the start marker and the end marker or the end of the stream
+    public String getFunctionText() {
+        if (functionStart < 0) {
+            return "";
+        }
+        int end = functionEnd >= 0 ? functionEnd : rawText.length();
+        return rawText.substring(functionStart, end).trim();
+    }
+
+    public String getRawText() {
+        return rawText.toString();
+    }
+}
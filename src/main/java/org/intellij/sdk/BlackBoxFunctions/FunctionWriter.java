@@ -5,181 +5,218 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.projectRoots.Sdk;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public class FunctionWriter {
-    public void writeToLibrary(Project project, String functionDefinition, String functionCode, String prompt, String uid) {
-        ApplicationManager.getApplication().executeOnPooledThread(() -> {
-            Path baseDirPath = Path.of(Objects.requireNonNull(project.getBasePath()));
-            Path generatedFunctionsFilePath = baseDirPath.resolve(PathManager.FUNCTION_MANAGER_FILE_NAME);
+    // Compiles of the same function in the same project run one at a time, so an older version cannot
+    // overwrite the .pyc of the version that replaced it
+    private static final Map<String, Object> COMPILE_LOCKS = new ConcurrentHashMap<>();
+
+    // Registers the function right away, then compiles it and appends its entry in the background. The entry is
+    // written even if compiling fails, as before, so the function stays in the library and can be recompiled
+    // later. The future completes with true once the entry is written, and with false if the function was
+    // deleted or replaced in the meantime.
+    public CompletableFuture<Boolean> writeToLibrary(Project project, String functionDefinition, String functionCode, String prompt, String uid) {
+        // Register the function right away so the tool window sees it before the file has been written
+        String functionName = extractFunctionName(functionDefinition);
+        String strippedPrompt = prompt.replace("\n", " ").replace("\r", "");
+        FunctionRegistry.getInstance(project).add(new FunctionRecord(functionDefinition, functionName, strippedPrompt, uid, -1));
+        CompletableFuture<Boolean> written = new CompletableFuture<>();
+        PluginEvents.LibraryWriteEvent writeEvent = new PluginEvents.LibraryWriteEvent();
+        writeEvent.begin();
+        writeEvent.functionName = functionName;
+        writeEvent.uid = uid;
+        writeEvent.offset = -1;
+        writeEvent.requestThread = PluginEvents.currentThreadName();
+        writeEvent.requestedOnEdt = PluginEvents.isOnEdt();
 
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
             try {
-                String functionName = extractFunctionName(functionDefinition);
-                compilePyFile(project, functionName, functionCode);
+                writeCompiledFunction(project, written, writeEvent, functionDefinition, functionName, functionCode, strippedPrompt, uid);
+            } catch (RuntimeException e) {
+                written.completeExceptionally(e);
+            }
+        });
+        return written;
+    }
+
+    private static void writeCompiledFunction(Project project, CompletableFuture<Boolean> written, PluginEvents.LibraryWriteEvent writeEvent,
+                                              String functionDefinition, String functionName, String functionCode, String strippedPrompt, String uid) {
+        Path baseDirPath = Path.of(Objects.requireNonNull(project.getBasePath()));
+        Path generatedFunctionsFilePath = baseDirPath.resolve(PathManager.FUNCTION_MANAGER_FILE_NAME);
+        FunctionRegistry registry = FunctionRegistry.getInstance(project);
 
-                String strippedPrompt = prompt.replace("\n", " ").replace("\r", "");
+        synchronized (COMPILE_LOCKS.computeIfAbsent(baseDirPath + "/" + functionName, key -> new Object())) {
+            if (registry.findByUid(uid) == null) {
+                // Deleted, or replaced by a newer version, before it was compiled
+                written.complete(false);
+                return;
+            }
+            CompileWorker.CompileResult compileResult = compilePyFile(project, functionName, functionCode);
+            if (!compileResult.isSuccess()) {
+                System.err.println("Function '" + functionName + "' could not be compiled, writing its library entry anyway: " + compileResult.getMessage());
+            }
+        }
+
+        // The slot is only taken once the entry is ready, so the single writer never waits for a compile. A delete
+        // removes the function from the registry before it queues its mutation, so if the function is still
+        // registered after the slot is taken, any delete of it is applied after this append.
+        LibraryWriteQueue.AppendSlot slot = LibraryWriteQueue.getInstance(project).reserveAppend();
+        if (registry.findByUid(uid) == null) {
+            // Deleted, or replaced by a newer version, while it was being compiled
+            slot.abandon();
+            written.complete(false);
+            return;
+        }
 
-                String commentedFunctionDefinition = "# " + functionDefinition + " # Prompt: " + strippedPrompt + " # UID: " + uid + "\n";
-                String functionDefinitionInGeneratedFile = String.format("def %s(*args, **kwargs):\n    from %s import %s\n    return %s(*args, **kwargs)\n\n", functionName, functionName, functionName, functionName);
-                Files.writeString(generatedFunctionsFilePath, commentedFunctionDefinition, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-//                Files.writeString(generatedFunctionsFilePath, commentedFunctionDefinition, StandardOpenOption.APPEND);
-                Files.writeString(generatedFunctionsFilePath, functionDefinitionInGeneratedFile, StandardOpenOption.APPEND);
+        // The comment line and wrapper go out as one append through the library's single writer
+        String commentedFunctionDefinition = "# " + functionDefinition + " # Prompt: " + strippedPrompt + " # UID: " + uid + "\n";
+        String functionDefinitionInGeneratedFile = String.format("def %s(*args, **kwargs):\n    from %s import %s\n    return %s(*args, **kwargs)\n\n", functionName, functionName, functionName, functionName);
+        String entry = commentedFunctionDefinition + functionDefinitionInGeneratedFile;
+        slot.fill(entry).whenComplete((recordOffset, error) -> {
+            writeEvent.end();
+            if (writeEvent.shouldCommit()) {
+                writeEvent.bytes = PluginEvents.utf8Length(entry);
+                writeEvent.offset = recordOffset != null ? recordOffset : -1;
+                writeEvent.success = error == null;
+                writeEvent.commit();
+            }
+            if (error != null) {
+                System.err.println("Error writing to generated functions file: " + error.getMessage());
+                registry.removeIfCurrent(functionName, uid);
+                // The append may have been partly written, the next load rebuilds the index from the file
+                registry.invalidateIndex();
+                written.completeExceptionally(error);
+            } else {
                 System.out.println("Function definition written to generated_functions.py");
-            } catch (IOException e) {
-                System.err.println("Error writing to generated functions file: " + e.getMessage());
+                if (registry.findByUid(uid) != null) {
+                    FunctionRecord record = new FunctionRecord(functionDefinition, functionName, strippedPrompt, uid, recordOffset);
+                    registry.add(record);
+                    registry.persistAddition(record);
+                } else {
+                    // Deleted or replaced while it was written, the index no longer matches the file
+                    registry.invalidateIndex();
+                }
+                written.complete(true);
             }
 
-            ApplicationManager.getApplication().invokeLater(() -> {
-                ApplicationManager.getApplication().runWriteAction(() -> {
-                    FunctionManager.reloadProject(project);
-                });
-            });
+            FunctionManager.refreshChangedFiles(List.of(generatedFunctionsFilePath, baseDirPath.resolve(functionName + ".pyc")));
         });
     }
 
     public static String extractFunctionName(String functionDefinition) {
-        String[] parts = functionDefinition.split("\\s+");
-        if (parts.length >= 2 && parts[0].equals("def")) {
-            return parts[1].split("\\(")[0];
-        }
-        return "";
+        return FunctionLibraryParser.extractFunctionName(functionDefinition);
     }
 
-    public static List<String> readFunctionDefinitions(Project project) {
+    // Reads every function record from generated_functions.py in one pass over the file
+    public static List<FunctionRecord> readFunctionRecords(Project project) {
         Path baseDirPath = Path.of(Objects.requireNonNull(project.getBasePath()));
         Path generatedFunctionsFilePath = baseDirPath.resolve(PathManager.FUNCTION_MANAGER_FILE_NAME);
 
-        try (var lines = Files.lines(generatedFunctionsFilePath)) {
-            return lines.filter(line -> line.startsWith("# def "))
-                    .map(line -> line.substring(2, line.indexOf('#', 2) >= 0 ? line.indexOf('#', 2) : line.length()))
-                    .collect(Collectors.toList());
+        try {
+            List<FunctionRecord> records = FunctionLibraryParser.parse(generatedFunctionsFilePath);
+            System.out.println("Loaded " + records.size() + " function records");
+            return records;
         } catch (IOException e) {
-            System.err.println("Error reading function definitions: " + e.getMessage());
+            System.err.println("Error reading function records: " + e.getMessage());
             e.printStackTrace();
             return Collections.emptyList();
         }
     }
 
-    public static List<String> readFunctionPrompts(Project project) {
-        Path baseDirPath = Path.of(Objects.requireNonNull(project.getBasePath()));
-        Path generatedFunctionsFilePath = baseDirPath.resolve(PathManager.FUNCTION_MANAGER_FILE_NAME);
+    public static List<String> readFunctionDefinitions(Project project) {
+        return readFunctionRecords(project).stream()
+                .map(FunctionRecord::getDef)
+                .collect(Collectors.toList());
+    }
 
-        try (var lines = Files.lines(generatedFunctionsFilePath)) {
-            List<String> prompts = lines.filter(line -> line.contains("# Prompt:"))
-                    .map(line -> {
-                        int promptStart = line.indexOf("# Prompt:") + "# Prompt:".length();
-                        int uidStart = line.indexOf("# UID:");
-                        String prompt;
-                        if (uidStart >= 0) {
-                            prompt = line.substring(promptStart, uidStart).trim();
-                        } else {
-                            prompt = line.substring(promptStart).trim();
-                        }
-                        System.out.println("Extracted prompt: " + prompt);
-                        return prompt;
-                    })
-                    .collect(Collectors.toList());
-            System.out.println("Loaded prompts: " + prompts);
-            return prompts;
-        } catch (IOException e) {
-            System.err.println("Error reading function prompts: " + e.getMessage());
-            e.printStackTrace();
-            return Collections.emptyList();
-        }
+    public static List<String> readFunctionPrompts(Project project) {
+        return readFunctionRecords(project).stream()
+                .map(FunctionRecord::getPrompt)
+                .collect(Collectors.toList());
     }
 
     public static List<String> readFunctionUIDs(Project project) {
-        Path baseDirPath = Path.of(Objects.requireNonNull(project.getBasePath()));
-        Path generatedFunctionsFilePath = baseDirPath.resolve(PathManager.FUNCTION_MANAGER_FILE_NAME);
+        return readFunctionRecords(project).stream()
+                .map(FunctionRecord::getUid)
+                .collect(Collectors.toList());
+    }
 
-        try (var lines = Files.lines(generatedFunctionsFilePath)) {
-            List<String> uids = lines.filter(line -> line.contains("# UID:"))
-                    .map(line -> {
-                        int uidStart = line.indexOf("# UID:") + "# UID:".length();
-                        String uid = line.substring(uidStart).trim();
-                        System.out.println("Extracted UID: " + uid);
-                        return uid;
-                    })
-                    .collect(Collectors.toList());
-            System.out.println("Loaded UIDs: " + uids);
-            return uids;
-        } catch (IOException e) {
-            System.err.println("Error reading function UIDs: " + e.getMessage());
-            e.printStackTrace();
-            return Collections.emptyList();
+    private static CompileWorker.CompileResult compilePyFile(Project project, String functionName, String functionCode) {
+        long startNanos = System.nanoTime();
+        PluginEvents.CompileEvent compileEvent = new PluginEvents.CompileEvent();
+        compileEvent.begin();
+        boolean success = false;
+        try {
+            CompileWorker.CompileResult result = compileFunction(project, functionName, functionCode, compileEvent);
+            success = result.isSuccess();
+            return result;
+        } finally {
+            PluginMetrics.recordSince(PluginMetrics.COMPILE, startNanos);
+            compileEvent.end();
+            if (compileEvent.shouldCommit()) {
+                compileEvent.functionName = functionName;
+                compileEvent.sourceBytes = PluginEvents.utf8Length(functionCode);
+                compileEvent.success = success;
+                compileEvent.commit();
+            }
         }
     }
 
-    private static void compilePyFile(Project project, String functionName, String functionCode) {
+    private static CompileWorker.CompileResult compileFunction(Project project, String functionName, String functionCode, PluginEvents.CompileEvent compileEvent) {
         Sdk pythonSdk = PathManager.getCurrentPythonSdk(project);
-        if (pythonSdk != null) {
+        if (pythonSdk != null && pythonSdk.getHomePath() != null) {
             String pythonExecutable = pythonSdk.getHomePath();
-            String compileScriptPath = extractCompileScript();
             Path baseDirPath = Path.of(Objects.requireNonNull(project.getBasePath()));
-            Path functionFilePath = baseDirPath.resolve(functionName + ".py");
+            Path functionFilePath = PathManager.getFunctionSourcePath(project, functionName);
             Path compiledFilePath = baseDirPath.resolve(functionName + ".pyc");
+            // Reuse the running compile worker for this interpreter instead of starting Python per function
+            CompileWorker compileWorker = CompileWorker.forInterpreter(pythonExecutable);
 
             try {
+                // Keep the source in the plugin directory so the function can be recompiled when the SDK changes
+                Files.createDirectories(functionFilePath.getParent());
                 Files.writeString(functionFilePath, functionCode, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            } catch (IOException e) {
+                System.err.println("Error writing function source file: " + e.getMessage());
+                return new CompileWorker.CompileResult(false, "Error writing function source file: " + e.getMessage());
+            }
 
-                ProcessBuilder processBuilder = new ProcessBuilder(
-                        pythonExecutable,
-                        compileScriptPath,
-                        functionFilePath.toString(),
-                        compiledFilePath.toString()
-                );
-
-                Process process = processBuilder.start();
-                int exitCode = process.waitFor();
-
-                if (exitCode == 0) {
-                    System.out.println("Function compiled to: " + compiledFilePath);
-                } else {
-                    System.err.println("Compilation failed with exit code: " + exitCode);
-                }
-            } catch (IOException | InterruptedException e) {
-                System.err.println("Error compiling function file: " + e.getMessage());
-                e.printStackTrace();
-            } finally {
-                // Delete the temporary .py file
-                try {
-                    Files.deleteIfExists(functionFilePath);
-                } catch (IOException e) {
-                    System.err.println("Error deleting temporary .py file: " + e.getMessage());
-                }
+            // Identical source compiled by an interpreter with the same magic number is taken from the cache
+            PycCache pycCache = new PycCache(PathManager.getPluginDirPath(project).resolve(PycCache.CACHE_DIR_NAME));
+            String magicNumber = compileWorker.getMagicNumber();
+            String cacheKey = magicNumber != null ? PycCache.createKey(functionCode, magicNumber) : null;
+            if (cacheKey != null && pycCache.materialize(cacheKey, compiledFilePath)) {
+                System.out.println("Compiled function taken from cache: " + compiledFilePath);
+                PluginMetrics.increment(PluginMetrics.COMPILE_CACHE_HITS);
+                compileEvent.cacheHit = true;
+                return new CompileWorker.CompileResult(true, "");
+            }
 
-                // Delete the temporary compile.py script file
-                Path tempCompileScriptPath = Path.of(compileScriptPath);
-                try {
-                    Files.deleteIfExists(tempCompileScriptPath);
-                } catch (IOException e) {
-                    System.err.println("Error deleting temporary compile.py script: " + e.getMessage());
+            CompileWorker.CompileResult result = compileWorker.compile(functionFilePath, compiledFilePath);
+            if (result.isSuccess()) {
+                System.out.println("Function compiled to: " + compiledFilePath);
+                if (cacheKey != null) {
+                    pycCache.store(cacheKey, compiledFilePath);
                 }
+            } else {
+                System.err.println("Compilation failed: " + result.getMessage());
+                PluginMetrics.increment(PluginMetrics.COMPILE_FAILURES);
+                compileEvent.message = result.getMessage();
             }
+            return result;
         } else {
             System.out.println("No Python SDK found for the project.");
-        }
-    }
-
-    private static String extractCompileScript() {
-        try {
-            Path tempDir = Files.createTempDirectory("pytutor");
-            Path tempCompileScriptPath = tempDir.resolve("compile.py");
-            try (InputStream inputStream = FunctionManager.class.getResourceAsStream("/compile.py")) {
-                assert inputStream != null;
-                Files.copy(inputStream, tempCompileScriptPath, StandardCopyOption.REPLACE_EXISTING);
-            }
-            return tempCompileScriptPath.toString();
-        } catch (IOException e) {
-            throw new RuntimeException("Error extracting compile.py script", e);
+            return new CompileWorker.CompileResult(false, "No Python SDK found for the project");
         }
     }
 }
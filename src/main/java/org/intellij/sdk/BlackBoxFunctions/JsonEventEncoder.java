@@ -0,0 +1,138 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import java.util.List;
+
+// Encodes telemetry events as JSON. Each event is written field by field into a buffer that is reused across
+// events, and strings are escaped in a single pass that copies unescaped runs in one go. Encoded events can be
+// joined into a JSON array or NDJSON payload for sending in batches.
+public class JsonEventEncoder {
+    private static final int INITIAL_CAPACITY = 1024;
+    // Buffers that grew past this for one large event are not kept around
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final char LINE_SEPARATOR = 0x2028;
+    private static final char PARAGRAPH_SEPARATOR = 0x2029;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private StringBuilder buffer = new StringBuilder(INITIAL_CAPACITY);
+
+    // Encodes one event, events without a subject leave out the SubjectID field
+    public synchronized String encodeEvent(String eventType, String sessionId, String subjectId, long timestamp, String metadata) {
+        StringBuilder out = buffer;
+        out.setLength(0);
+        out.append("{\"EventType\":");
+        appendString(out, eventType);
+        out.append(",\"AssignmentID\":");
+        appendString(out, sessionId);
+        if (subjectId != null) {
+            out.append(",\"SubjectID\":");
+            appendString(out, subjectId);
+        }
+        out.append(",\"Entry\":");
+        appendString(out, eventType);
+        // The logging server expects the timestamp as a string
+        out.append(",\"ClientTimestamp\":\"").append(timestamp).append('"');
+        out.append(",\"X-Metadata\":");
+        appendString(out, metadata);
+        out.append('}');
+
+        String event = out.toString();
+        if (out.capacity() > MAX_RETAINED_CAPACITY) {
+            buffer = new StringBuilder(INITIAL_CAPACITY);
+        }
+        return event;
+    }
+
+    // Joins encoded events into one JSON array
+    public static String encodeArray(List<String> events) {
+        StringBuilder out = new StringBuilder(payloadCapacity(events));
+        out.append('[');
+        for (int i = 0; i < events.size(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(events.get(i));
+        }
+        return out.append(']').toString();
+    }
+
+    // Joins encoded events into NDJSON, one event per line
+    public static String encodeNdjson(List<String> events) {
+        StringBuilder out = new StringBuilder(payloadCapacity(events));
+        for (String event : events) {
+            out.append(event).append('\n');
+        }
+        return out.toString();
+    }
+
+    public static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        StringBuilder out = new StringBuilder(value.length() + 16);
+        appendEscaped(out, value);
+        return out.toString();
+    }
+
+    // Appends the value as a quoted JSON string, null becomes an empty string
+    public static void appendString(StringBuilder out, String value) {
+        out.append('"');
+        if (value != null) {
+            appendEscaped(out, value);
+        }
+        out.append('"');
+    }
+
+    // Escapes quotes, backslashes and all control characters as required by RFC 8259. U+2028 and U+2029 are
+    // escaped too so the output is also safe to embed in JavaScript.
+    public static void appendEscaped(StringBuilder out, String value) {
+        int runStart = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != LINE_SEPARATOR && c != PARAGRAPH_SEPARATOR) {
+                continue;
+            }
+            out.append(value, runStart, i);
+            runStart = i + 1;
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\b':
+                    out.append("\\b");
+                    break;
+                case '\f':
+                    out.append("\\f");
+                    break;
+                default:
+                    out.append("\\u")
+                            .append(HEX_DIGITS[(c >> 12) & 0xF])
+                            .append(HEX_DIGITS[(c >> 8) & 0xF])
+                            .append(HEX_DIGITS[(c >> 4) & 0xF])
+                            .append(HEX_DIGITS[c & 0xF]);
+                    break;
+            }
+        }
+        out.append(value, runStart, length);
+    }
+
+    private static int payloadCapacity(List<String> events) {
+        int capacity = events.size() + 2;
+        for (String event : events) {
+            capacity += event.length();
+        }
+        return capacity;
+    }
+}
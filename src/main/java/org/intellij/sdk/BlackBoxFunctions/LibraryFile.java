@@ -0,0 +1,75 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+// The in-place edits LibraryWriteQueue makes to generated_functions.py. They need no IDE classes, so the
+// benchmarks measure exactly the code the writer thread runs.
+public final class LibraryFile {
+    private static final int TOMBSTONE_READ_SIZE = 4096;
+
+    private LibraryFile() {
+    }
+
+    // Tombstones the block of the function version with the UID at the offset and syncs it to disk. Returns the
+    // block's length, or -1 if the block is not found there.
+    public static int tombstone(Path libraryFilePath, long offset, String functionName, String uid) throws IOException {
+        if (offset < 0 || !Files.exists(libraryFilePath)) {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(libraryFilePath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Read just enough of the file to cover the block, a block is usually a few hundred bytes
+            long available = channel.size() - offset;
+            int blockLength = -1;
+            ByteBuffer buffer = null;
+            for (int chunkSize = TOMBSTONE_READ_SIZE; available > 0; chunkSize *= 2) {
+                buffer = ByteBuffer.allocate((int) Math.min(chunkSize, available));
+                while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+                    // Keep reading until the chunk is full
+                }
+                blockLength = FunctionLibraryParser.blockLength(buffer.array(), buffer.position(), functionName, uid);
+                if (blockLength < buffer.capacity() || buffer.capacity() == available) {
+                    break;
+                }
+            }
+            if (buffer == null || blockLength <= 0) {
+                return -1;
+            }
+
+            FunctionLibraryParser.tombstone(buffer.array(), blockLength);
+            ByteBuffer block = ByteBuffer.wrap(buffer.array(), 0, blockLength);
+            long position = offset;
+            while (block.hasRemaining()) {
+                position += channel.write(block, position);
+            }
+            channel.force(false);
+            return blockLength;
+        }
+    }
+
+    // Replaces the library file with the rewritten lines. The new content is written to a temporary file next to
+    // the library, so the move stays on one file system and can be atomic, and readers never see a partial file.
+    public static void rewrite(Path libraryFilePath, UnaryOperator<List<String>> rewrite) throws IOException {
+        List<String> lines = Files.exists(libraryFilePath) ? Files.readAllLines(libraryFilePath) : new ArrayList<>();
+        List<String> rewrittenLines = rewrite.apply(lines);
+
+        Path tempFile = Files.createTempFile(libraryFilePath.getParent(), "pytutor", ".tmp");
+        try {
+            Files.write(tempFile, rewrittenLines);
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                channel.force(false);
+            }
+            Files.move(tempFile, libraryFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+}
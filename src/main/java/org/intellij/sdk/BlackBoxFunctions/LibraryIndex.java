@@ -0,0 +1,323 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Binary sidecar index of generated_functions.py, stored in the plugin directory. It records the size and
+// modification time of the library file it was built from and is only used while both still match.
+//
+// Layout: magic, version, source size, source mtime, tombstone count, record count, then per record the byte offset,
+// a CRC32 of the record's def, prompt and UID, and the name, def, prompt and UID as length-prefixed UTF-8 strings.
+// Functions added or deleted afterwards are appended as delta entries, a type byte followed by the record or the
+// name, and the source size, mtime and tombstone count are patched in the header. Updating the index for one
+// function therefore costs about the size of that function's entry.
+//
+// Reading checks every record's CRC but only decodes its name and UID. The def and prompt stay as bytes in the
+// read buffer until something asks for them, which for a large library is mostly the rows that get painted.
+public class LibraryIndex {
+    public static final String INDEX_FILE_NAME = "library.idx";
+    private static final int MAGIC = 0x42424649; // "BBFI"
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4;
+    private static final int SOURCE_STATE_POSITION = 8;
+    private static final byte DELTA_ADD = 1;
+    private static final byte DELTA_REMOVE = 2;
+
+    // Returns the indexed library, or null if the index is missing, stale or unreadable
+    public static FunctionLibraryParser.ParsedLibrary read(Path indexFilePath, Path sourceFilePath) {
+        if (!Files.exists(indexFilePath) || !Files.exists(sourceFilePath)) {
+            return null;
+        }
+        try {
+            // Read into the heap rather than mapping the file, a mapping would keep it open until garbage collected
+            // and on Windows that makes the next write's replace of the index fail
+            ByteBuffer buffer = readFile(indexFilePath);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            long sourceSize = buffer.getLong();
+            long sourceModified = buffer.getLong();
+            if (sourceSize != Files.size(sourceFilePath) || sourceModified != Files.getLastModifiedTime(sourceFilePath).toMillis()) {
+                System.out.println("Library index is stale, rebuilding");
+                return null;
+            }
+
+            int tombstoneCount = buffer.getInt();
+            int count = buffer.getInt();
+            Map<String, FunctionRecord> records = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                FunctionRecord record = readRecord(buffer);
+                records.put(record.getName(), record);
+            }
+            while (buffer.hasRemaining()) {
+                byte type = buffer.get();
+                if (type == DELTA_ADD) {
+                    FunctionRecord record = readRecord(buffer);
+                    records.put(record.getName(), record);
+                } else if (type == DELTA_REMOVE) {
+                    records.remove(readString(buffer));
+                } else {
+                    throw new IllegalArgumentException("Unknown delta entry type " + type);
+                }
+            }
+            return new FunctionLibraryParser.ParsedLibrary(new ArrayList<>(records.values()), tombstoneCount);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            System.err.println("Error reading library index: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Writes the index for the library file as it is right now. Records must carry their current byte offsets.
+    // Returns false if the index could not be written.
+    public static boolean write(Path indexFilePath, Path sourceFilePath, List<FunctionRecord> records, int tombstoneCount) {
+        if (!Files.exists(sourceFilePath)) {
+            invalidate(indexFilePath);
+            return false;
+        }
+        try {
+            List<byte[][]> encodedRecords = new ArrayList<>(records.size());
+            int totalBytes = HEADER_SIZE;
+            for (FunctionRecord record : records) {
+                byte[][] fields = encodeFields(record);
+                encodedRecords.add(fields);
+                totalBytes += recordSize(fields);
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(totalBytes);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putLong(Files.size(sourceFilePath));
+            buffer.putLong(Files.getLastModifiedTime(sourceFilePath).toMillis());
+            buffer.putInt(tombstoneCount);
+            buffer.putInt(records.size());
+            for (int i = 0; i < records.size(); i++) {
+                putRecord(buffer, records.get(i), encodedRecords.get(i));
+            }
+            buffer.flip();
+
+            Files.createDirectories(indexFilePath.getParent());
+            Path tempFile = indexFilePath.resolveSibling(INDEX_FILE_NAME + ".tmp");
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(tempFile, indexFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error writing library index: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Records a function appended to the library. The index must have matched the library before the append.
+    public static boolean appendRecord(Path indexFilePath, Path sourceFilePath, FunctionRecord record, int tombstoneCount) {
+        byte[][] fields = encodeFields(record);
+        ByteBuffer entry = ByteBuffer.allocate(1 + recordSize(fields));
+        entry.put(DELTA_ADD);
+        putRecord(entry, record, fields);
+        entry.flip();
+        return appendDelta(indexFilePath, sourceFilePath, entry, tombstoneCount);
+    }
+
+    // Records a function deleted from the library. The index must have matched the library before the delete.
+    public static boolean appendRemoval(Path indexFilePath, Path sourceFilePath, String functionName, int tombstoneCount) {
+        byte[] name = functionName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(1 + 4 + name.length);
+        entry.put(DELTA_REMOVE);
+        entry.putInt(name.length);
+        entry.put(name);
+        entry.flip();
+        return appendDelta(indexFilePath, sourceFilePath, entry, tombstoneCount);
+    }
+
+    // Appends the entry, then patches the header to the library's new size and mtime. If this is interrupted
+    // between the two writes the header no longer matches and the index is rebuilt on the next load.
+    private static boolean appendDelta(Path indexFilePath, Path sourceFilePath, ByteBuffer entry, int tombstoneCount) {
+        if (!Files.exists(indexFilePath) || !Files.exists(sourceFilePath)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(indexFilePath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+                // Keep reading until the magic and version are in
+            }
+            header.flip();
+            if (header.remaining() < 8 || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                return false;
+            }
+
+            long position = channel.size();
+            while (entry.hasRemaining()) {
+                position += channel.write(entry, position);
+            }
+
+            ByteBuffer sourceState = ByteBuffer.allocate(8 + 8 + 4);
+            sourceState.putLong(Files.size(sourceFilePath));
+            sourceState.putLong(Files.getLastModifiedTime(sourceFilePath).toMillis());
+            sourceState.putInt(tombstoneCount);
+            sourceState.flip();
+            position = SOURCE_STATE_POSITION;
+            while (sourceState.hasRemaining()) {
+                position += channel.write(sourceState, position);
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error updating library index: " + e.getMessage());
+            return false;
+        }
+    }
+
+    public static void invalidate(Path indexFilePath) {
+        try {
+            Files.deleteIfExists(indexFilePath);
+        } catch (IOException e) {
+            System.err.println("Error deleting library index: " + e.getMessage());
+        }
+    }
+
+    private static byte[][] encodeFields(FunctionRecord record) {
+        return new byte[][]{
+                record.getName().getBytes(StandardCharsets.UTF_8),
+                record.getDef().getBytes(StandardCharsets.UTF_8),
+                record.getPrompt().getBytes(StandardCharsets.UTF_8),
+                record.getUid().getBytes(StandardCharsets.UTF_8)
+        };
+    }
+
+    private static int recordSize(byte[][] fields) {
+        int size = 8 + 4;
+        for (byte[] field : fields) {
+            size += 4 + field.length;
+        }
+        return size;
+    }
+
+    private static void putRecord(ByteBuffer buffer, FunctionRecord record, byte[][] fields) {
+        buffer.putLong(record.getOffset());
+        buffer.putInt(contentHash(fields));
+        for (byte[] field : fields) {
+            buffer.putInt(field.length);
+            buffer.put(field);
+        }
+    }
+
+    // Decodes the name and UID and checks the CRC, the def and prompt are decoded on first use
+    private static FunctionRecord readRecord(ByteBuffer buffer) {
+        long offset = buffer.getLong();
+        int expectedHash = buffer.getInt();
+        String name = readString(buffer);
+        int defLength = readLength(buffer);
+        int defPosition = buffer.position();
+        buffer.position(defPosition + defLength);
+        int promptLength = readLength(buffer);
+        int promptPosition = buffer.position();
+        buffer.position(promptPosition + promptLength);
+        int uidLength = readLength(buffer);
+        int uidPosition = buffer.position();
+        buffer.position(uidPosition + uidLength);
+
+        byte[] bytes = buffer.array();
+        CRC32 crc = new CRC32();
+        crc.update(bytes, defPosition, defLength);
+        crc.update(bytes, promptPosition, promptLength);
+        crc.update(bytes, uidPosition, uidLength);
+        if ((int) crc.getValue() != expectedHash) {
+            throw new IllegalArgumentException("Checksum mismatch in the record of " + name);
+        }
+        String uid = new String(bytes, uidPosition, uidLength, StandardCharsets.UTF_8);
+        return new IndexedFunctionRecord(name, uid, offset, bytes, defPosition, defLength, promptPosition, promptLength);
+    }
+
+    private static int contentHash(byte[][] fields) {
+        CRC32 crc = new CRC32();
+        crc.update(fields[1]);
+        crc.update(fields[2]);
+        crc.update(fields[3]);
+        return (int) crc.getValue();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = readLength(buffer);
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static int readLength(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Corrupt string length " + length);
+        }
+        return length;
+    }
+
+    private static ByteBuffer readFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Library index is too large: " + size + " bytes");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Keep reading until the whole file is in
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    // A record read from the index. Its def and prompt are decoded from the index bytes the first time they are
+    // needed; the strings are immutable, so decoding twice in a race is harmless.
+    private static class IndexedFunctionRecord extends FunctionRecord {
+        private final byte[] bytes;
+        private final int defPosition;
+        private final int defLength;
+        private final int promptPosition;
+        private final int promptLength;
+        private String def;
+        private String prompt;
+
+        IndexedFunctionRecord(String name, String uid, long offset, byte[] bytes,
+                              int defPosition, int defLength, int promptPosition, int promptLength) {
+            super(null, name, null, uid, offset);
+            this.bytes = bytes;
+            this.defPosition = defPosition;
+            this.defLength = defLength;
+            this.promptPosition = promptPosition;
+            this.promptLength = promptLength;
+        }
+
+        @Override
+        public String getDef() {
+            String value = def;
+            if (value == null) {
+                value = new String(bytes, defPosition, defLength, StandardCharsets.UTF_8);
+                def = value;
+            }
+            return value;
+        }
+
+        @Override
+        public String getPrompt() {
+            String value = prompt;
+            if (value == null) {
+                value = new String(bytes, promptPosition, promptLength, StandardCharsets.UTF_8);
+                prompt = value;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.projectRoots.Sdk;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Recompiles every generated function when the project interpreter changes, since .pyc files only load in the
+// interpreter version that produced them. Functions are compiled in parallel by a few dedicated compile workers
+// into a staging directory, and each new .pyc replaces the old one only once it has been compiled successfully.
+@Service(Service.Level.PROJECT)
+public final class LibraryRecompiler {
+    private static final String SDK_STAMP_FILE_NAME = "sdk.stamp";
+    private static final String STAGING_DIR_NAME = "recompile";
+    private static final int MAX_PARALLEL_COMPILES = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private final Project project;
+    private String knownInterpreterStamp = null;
+    private boolean recompiling = false;
+    private boolean recheckAfterRecompile = false;
+
+    public LibraryRecompiler(Project project) {
+        this.project = project;
+    }
+
+    public static LibraryRecompiler getInstance(Project project) {
+        return project.getService(LibraryRecompiler.class);
+    }
+
+    // Compares the current interpreter with the one the library was last compiled with and starts a
+    // recompilation when they differ. Called on the EDT for every roots change, so only the SDK is looked up
+    // here and the stamp file is read and compared on a pooled thread.
+    public void checkInterpreter() {
+        if (project.isDisposed() || project.getBasePath() == null) {
+            return;
+        }
+        Sdk pythonSdk = PathManager.getCurrentPythonSdk(project);
+        if (pythonSdk == null || pythonSdk.getHomePath() == null) {
+            return;
+        }
+        String pythonExecutable = pythonSdk.getHomePath();
+        String interpreterStamp = pythonExecutable + "\n" + pythonSdk.getVersionString();
+        ApplicationManager.getApplication().executeOnPooledThread(() -> checkInterpreter(pythonExecutable, interpreterStamp));
+    }
+
+    private synchronized void checkInterpreter(String pythonExecutable, String interpreterStamp) {
+        if (project.isDisposed()) {
+            return;
+        }
+        if (knownInterpreterStamp == null) {
+            knownInterpreterStamp = readStamp();
+        }
+        if (interpreterStamp.equals(knownInterpreterStamp)) {
+            return;
+        }
+        if (knownInterpreterStamp.isEmpty()) {
+            // Nothing recorded yet, assume the library was compiled with the current interpreter
+            knownInterpreterStamp = interpreterStamp;
+            writeStamp(interpreterStamp);
+            return;
+        }
+        if (recompiling) {
+            recheckAfterRecompile = true;
+            return;
+        }
+
+        String previousStamp = knownInterpreterStamp;
+        knownInterpreterStamp = interpreterStamp;
+        recompiling = true;
+        System.out.println("Python interpreter changed from " + previousStamp.replace('\n', ' ') + " to " + interpreterStamp.replace('\n', ' '));
+        startRecompilation(pythonExecutable, previousStamp, interpreterStamp);
+    }
+
+    private void startRecompilation(String pythonExecutable, String previousStamp, String interpreterStamp) {
+        new Task.Backgroundable(project, "Recompiling generated functions", true) {
+            private final List<Path> recompiledFiles = new ArrayList<>();
+            private int skipped = 0;
+            private int failed = 0;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                FunctionRegistry registry = FunctionRegistry.getInstance(project);
+                registry.load();
+                List<FunctionRecord> records = registry.getFunctions();
+                Path baseDirPath = Path.of(project.getBasePath());
+                Path stagingDirPath = PathManager.getPluginDirPath(project).resolve(STAGING_DIR_NAME);
+                PycCache pycCache = new PycCache(PathManager.getPluginDirPath(project).resolve(PycCache.CACHE_DIR_NAME));
+
+                int workerCount = Math.min(MAX_PARALLEL_COMPILES, Math.max(1, records.size()));
+                List<CompileWorker> allWorkers = new ArrayList<>(workerCount);
+                BlockingQueue<CompileWorker> workers = new ArrayBlockingQueue<>(workerCount);
+                for (int i = 0; i < workerCount; i++) {
+                    CompileWorker worker = CompileWorker.createDedicated(pythonExecutable);
+                    allWorkers.add(worker);
+                    workers.add(worker);
+                }
+                ExecutorService executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("BlackBoxFunctions recompile", workerCount);
+                AtomicInteger skippedCount = new AtomicInteger();
+
+                try {
+                    Files.createDirectories(stagingDirPath);
+                    List<Future<Path>> futures = new ArrayList<>(records.size());
+                    for (FunctionRecord record : records) {
+                        futures.add(executor.submit(() -> {
+                            String functionName = record.getName();
+                            Path sourceFilePath = PathManager.getFunctionSourcePath(project, functionName);
+                            if (!Files.exists(sourceFilePath)) {
+                                // Functions generated before sources were kept cannot be recompiled
+                                skippedCount.incrementAndGet();
+                                return null;
+                            }
+                            Path stagedFilePath = stagingDirPath.resolve(functionName + ".pyc");
+                            Path compiledFilePath = baseDirPath.resolve(functionName + ".pyc");
+
+                            CompileWorker worker = workers.take();
+                            CompileWorker.CompileResult result;
+                            String magicNumber;
+                            try {
+                                result = worker.compile(sourceFilePath, stagedFilePath);
+                                magicNumber = worker.getMagicNumber();
+                            } finally {
+                                workers.add(worker);
+                            }
+                            if (!result.isSuccess()) {
+                                throw new IOException(functionName + ": " + result.getMessage());
+                            }
+
+                            if (magicNumber != null) {
+                                pycCache.store(PycCache.createKey(Files.readString(sourceFilePath), magicNumber), stagedFilePath);
+                            }
+                            Files.move(stagedFilePath, compiledFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                            return compiledFilePath;
+                        }));
+                    }
+
+                    indicator.setIndeterminate(false);
+                    for (int i = 0; i < futures.size(); i++) {
+                        Future<Path> future = futures.get(i);
+                        indicator.setText2(records.get(i).getName());
+                        while (true) {
+                            indicator.checkCanceled();
+                            try {
+                                Path compiledFilePath = future.get(100, TimeUnit.MILLISECONDS);
+                                if (compiledFilePath != null) {
+                                    recompiledFiles.add(compiledFilePath);
+                                }
+                                break;
+                            } catch (TimeoutException e) {
+                                // Check for cancellation and keep waiting
+                            } catch (ExecutionException e) {
+                                failed++;
+                                System.err.println("Error recompiling function: " + e.getCause().getMessage());
+                                break;
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                indicator.cancel();
+                                indicator.checkCanceled();
+                            }
+                        }
+                        indicator.setFraction((double) (i + 1) / futures.size());
+                    }
+                    if (failed == 0) {
+                        writeStamp(interpreterStamp);
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException("Error preparing recompilation: " + e.getMessage(), e);
+                } finally {
+                    executor.shutdownNow();
+                    for (CompileWorker worker : allWorkers) {
+                        worker.shutdown();
+                    }
+                    skipped = skippedCount.get();
+                }
+            }
+
+            @Override
+            public void onSuccess() {
+                System.out.println("Recompiled " + recompiledFiles.size() + " functions, " + skipped + " skipped, " + failed + " failed");
+                if (failed > 0) {
+                    // Keep the old stamp so the next roots change or project open tries again
+                    synchronized (LibraryRecompiler.this) {
+                        knownInterpreterStamp = previousStamp;
+                    }
+                    return;
+                }
+                CompileWorker.shutdownInterpreter(previousStamp.split("\n", 2)[0]);
+            }
+
+            @Override
+            public void onCancel() {
+                // Try again on the next roots change, functions recompiled so far keep their new .pyc
+                synchronized (LibraryRecompiler.this) {
+                    knownInterpreterStamp = previousStamp;
+                }
+            }
+
+            @Override
+            public void onThrowable(@NotNull Throwable error) {
+                System.err.println("Recompilation failed: " + error.getMessage());
+                synchronized (LibraryRecompiler.this) {
+                    knownInterpreterStamp = previousStamp;
+                }
+            }
+
+            @Override
+            public void onFinished() {
+                if (!recompiledFiles.isEmpty()) {
+                    FunctionManager.refreshChangedFiles(recompiledFiles);
+                }
+                boolean recheck;
+                synchronized (LibraryRecompiler.this) {
+                    recompiling = false;
+                    recheck = recheckAfterRecompile;
+                    recheckAfterRecompile = false;
+                }
+                if (recheck) {
+                    checkInterpreter();
+                }
+            }
+        }.queue();
+    }
+
+    private Path getStampFilePath() {
+        return PathManager.getPluginDirPath(project).resolve(SDK_STAMP_FILE_NAME);
+    }
+
+    private String readStamp() {
+        try {
+            Path stampFilePath = getStampFilePath();
+            return Files.exists(stampFilePath) ? Files.readString(stampFilePath) : "";
+        } catch (IOException e) {
+            System.err.println("Error reading interpreter stamp: " + e.getMessage());
+            return "";
+        }
+    }
+
+    private void writeStamp(String interpreterStamp) {
+        try {
+            Path stampFilePath = getStampFilePath();
+            Files.createDirectories(stampFilePath.getParent());
+            Files.writeString(stampFilePath, interpreterStamp);
+        } catch (IOException e) {
+            System.err.println("Error writing interpreter stamp: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.project.Project;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Single writer for generated_functions.py. Every mutation of the library file goes through this queue and is
+// applied in submission order by one thread. Appends that are pending together are written with one write and
+// one fsync; a deleted function's block is tombstoned in place; rewrites go to a temporary file that atomically
+// replaces the library, so readers never see a partially written file.
+@Service(Service.Level.PROJECT)
+public final class LibraryWriteQueue implements Disposable {
+    private static final long SLOT_POLL_MILLIS = 500;
+
+    private final Project project;
+    private final BlockingQueue<Mutation> pendingMutations = new LinkedBlockingQueue<>();
+    private Thread writerThread;
+    private volatile boolean running = true;
+
+    public LibraryWriteQueue(Project project) {
+        this.project = project;
+    }
+
+    public static LibraryWriteQueue getInstance(Project project) {
+        return project.getService(LibraryWriteQueue.class);
+    }
+
+    @FunctionalInterface
+    public interface LibraryRewrite {
+        List<String> apply(List<String> lines);
+    }
+
+    private abstract static class Mutation {
+        abstract void fail(Throwable error);
+    }
+
+    // The content is null for an append whose slot was abandoned
+    private static class Append extends Mutation {
+        private final CompletableFuture<byte[]> content = new CompletableFuture<>();
+        private final CompletableFuture<Long> offset = new CompletableFuture<>();
+
+        @Override
+        void fail(Throwable error) {
+            content.complete(null);
+            offset.completeExceptionally(error);
+        }
+    }
+
+    private static class Delete extends Mutation {
+        private final long offset;
+        private final String functionName;
+        private final String uid;
+        private final CompletableFuture<Boolean> done = new CompletableFuture<>();
+
+        private Delete(long offset, String functionName, String uid) {
+            this.offset = offset;
+            this.functionName = functionName;
+            this.uid = uid;
+        }
+
+        @Override
+        void fail(Throwable error) {
+            done.completeExceptionally(error);
+        }
+    }
+
+    private static class Rewrite extends Mutation {
+        private final LibraryRewrite rewrite;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Rewrite(LibraryRewrite rewrite) {
+            this.rewrite = rewrite;
+        }
+
+        @Override
+        void fail(Throwable error) {
+            done.completeExceptionally(error);
+        }
+    }
+
+    // A place in the write order, taken before the text to append is known. The writer waits at the slot until
+    // it is filled or abandoned, so mutations submitted after it are applied after it.
+    public static final class AppendSlot {
+        private final Append append;
+
+        private AppendSlot(Append append) {
+            this.append = append;
+        }
+
+        // The future completes with the byte offset the text was written at
+        public CompletableFuture<Long> fill(String text) {
+            append.content.complete(text.getBytes(StandardCharsets.UTF_8));
+            return append.offset;
+        }
+
+        // Gives up the slot without writing anything
+        public void abandon() {
+            if (append.content.complete(null)) {
+                append.offset.cancel(false);
+            }
+        }
+    }
+
+    // Appends the text to the library file. The future completes with the byte offset the text was written at.
+    public CompletableFuture<Long> append(String text) {
+        return reserveAppend().fill(text);
+    }
+
+    // Reserves the next place in the write order for an append whose text is filled in later. Every slot must
+    // be filled or abandoned, the writer does not get past it before.
+    public AppendSlot reserveAppend() {
+        Append append = new Append();
+        submit(append);
+        return new AppendSlot(append);
+    }
+
+    // Deletes the version of the function with the given UID. Its block is tombstoned in place at the offset,
+    // or, if it is not found there, e.g. because its offset was not known yet, the library is rewritten without
+    // that block and without earlier tombstones. Both happen in one step on the writer thread, so a newer version
+    // of the function appended after this call is never touched. The future completes with true if the block
+    // was tombstoned and with false if the library was rewritten.
+    public CompletableFuture<Boolean> delete(long offset, String functionName, String uid) {
+        Delete delete = new Delete(offset, functionName, uid);
+        submit(delete);
+        return delete.done;
+    }
+
+    // Replaces the library file with the rewritten lines
+    public CompletableFuture<Void> rewrite(LibraryRewrite rewrite) {
+        Rewrite mutation = new Rewrite(rewrite);
+        submit(mutation);
+        return mutation.done;
+    }
+
+    @Override
+    public void dispose() {
+        synchronized (this) {
+            running = false;
+            if (writerThread != null) {
+                writerThread.interrupt();
+            }
+        }
+    }
+
+    private void submit(Mutation mutation) {
+        synchronized (this) {
+            if (!running) {
+                mutation.fail(new IllegalStateException("The library writer has been disposed"));
+                return;
+            }
+            if (writerThread == null) {
+                writerThread = new Thread(this::runLoop, "BlackBoxFunctions library writer");
+                writerThread.setDaemon(true);
+                writerThread.start();
+            }
+            // Added under the lock so a mutation is never queued after the writer has stopped
+            pendingMutations.add(mutation);
+        }
+    }
+
+    private void runLoop() {
+        List<Mutation> batch = new ArrayList<>();
+        while (running || !pendingMutations.isEmpty()) {
+            try {
+                batch.add(pendingMutations.take());
+            } catch (InterruptedException e) {
+                if (pendingMutations.isEmpty()) {
+                    break;
+                }
+            }
+            pendingMutations.drainTo(batch);
+
+            // Apply in order, merging each run of consecutive appends into one group commit
+            int index = 0;
+            while (index < batch.size()) {
+                if (batch.get(index) instanceof Append) {
+                    List<Append> appends = new ArrayList<>();
+                    while (index < batch.size() && batch.get(index) instanceof Append) {
+                        appends.add((Append) batch.get(index++));
+                    }
+                    applyAppends(appends);
+                } else if (batch.get(index) instanceof Delete) {
+                    applyDelete((Delete) batch.get(index++));
+                } else {
+                    applyRewrite((Rewrite) batch.get(index++));
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private void applyAppends(List<Append> reservedAppends) {
+        // Wait for every slot in the run, in order, and leave out the abandoned ones
+        List<Append> appends = new ArrayList<>(reservedAppends.size());
+        List<byte[]> contents = new ArrayList<>(reservedAppends.size());
+        for (Append append : reservedAppends) {
+            byte[] content = awaitContent(append);
+            if (content != null) {
+                appends.add(append);
+                contents.add(content);
+            }
+        }
+        if (appends.isEmpty()) {
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        PluginEvents.LibraryIoEvent ioEvent = new PluginEvents.LibraryIoEvent();
+        ioEvent.begin();
+        ioEvent.operation = "append";
+        ioEvent.functionCount = appends.size();
+        int totalBytes = 0;
+        for (byte[] content : contents) {
+            totalBytes += content.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(totalBytes);
+        for (byte[] content : contents) {
+            buffer.put(content);
+        }
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(getLibraryFilePath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long offset = channel.size();
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(false);
+
+            for (int i = 0; i < appends.size(); i++) {
+                appends.get(i).offset.complete(offset);
+                offset += contents.get(i).length;
+            }
+            System.out.println("Appended " + appends.size() + " entries to the library in one write");
+            PluginMetrics.recordSince(PluginMetrics.LIBRARY_WRITE, startNanos);
+            PluginMetrics.add(PluginMetrics.LIBRARY_APPENDED_FUNCTIONS, appends.size());
+            ioEvent.bytes = totalBytes;
+            ioEvent.success = true;
+        } catch (IOException e) {
+            System.err.println("Error appending to generated functions file: " + e.getMessage());
+            for (Append append : appends) {
+                append.offset.completeExceptionally(e);
+            }
+        }
+        ioEvent.commit();
+    }
+
+    // Waits until the slot is filled or abandoned. Once the queue is disposed, slots still open are failed.
+    private byte[] awaitContent(Append append) {
+        while (true) {
+            try {
+                return append.content.get(SLOT_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | InterruptedException e) {
+                if (!running) {
+                    append.fail(new IllegalStateException("The library writer has been disposed"));
+                    return null;
+                }
+            } catch (ExecutionException | CancellationException e) {
+                return null;
+            }
+        }
+    }
+
+    private void applyDelete(Delete delete) {
+        long startNanos = System.nanoTime();
+        PluginEvents.LibraryIoEvent ioEvent = new PluginEvents.LibraryIoEvent();
+        ioEvent.begin();
+        ioEvent.operation = "tombstone";
+        ioEvent.functionCount = 1;
+        Path libraryFilePath = getLibraryFilePath();
+        try {
+            int blockLength = LibraryFile.tombstone(libraryFilePath, delete.offset, delete.functionName, delete.uid);
+            if (blockLength >= 0) {
+                PluginMetrics.recordSince(PluginMetrics.LIBRARY_DELETE, startNanos);
+                ioEvent.bytes = blockLength;
+                ioEvent.success = true;
+                delete.done.complete(true);
+                return;
+            }
+
+            ioEvent.operation = "rewrite";
+            LibraryFile.rewrite(libraryFilePath, lines -> FunctionLibraryParser.removeTombstones(
+                    FunctionLibraryParser.removeFunction(lines, delete.functionName, delete.uid)));
+            PluginMetrics.recordSince(PluginMetrics.LIBRARY_REWRITE, startNanos);
+            ioEvent.bytes = Files.size(libraryFilePath);
+            ioEvent.success = true;
+            delete.done.complete(false);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error deleting function from generated functions file: " + e.getMessage());
+            delete.done.completeExceptionally(e);
+        } finally {
+            ioEvent.commit();
+        }
+    }
+
+    private void applyRewrite(Rewrite mutation) {
+        long startNanos = System.nanoTime();
+        PluginEvents.LibraryIoEvent ioEvent = new PluginEvents.LibraryIoEvent();
+        ioEvent.begin();
+        ioEvent.operation = "rewrite";
+        Path libraryFilePath = getLibraryFilePath();
+        try {
+            LibraryFile.rewrite(libraryFilePath, mutation.rewrite::apply);
+            PluginMetrics.recordSince(PluginMetrics.LIBRARY_REWRITE, startNanos);
+            ioEvent.bytes = Files.size(libraryFilePath);
+            ioEvent.success = true;
+            mutation.done.complete(null);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error rewriting generated functions file: " + e.getMessage());
+            mutation.done.completeExceptionally(e);
+        }
+        ioEvent.commit();
+    }
+
+    private Path getLibraryFilePath() {
+        return Path.of(Objects.requireNonNull(project.getBasePath())).resolve(PathManager.FUNCTION_MANAGER_FILE_NAME);
+    }
+}
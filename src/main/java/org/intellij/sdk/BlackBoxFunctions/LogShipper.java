@@ -0,0 +1,263 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+// Ships logging events to the logging server from a background thread. Events are queued without blocking
+// the caller and posted one event object per request, which every server version accepts. When the server is
+// known to accept arrays, events are sent as a JSON array once a batch fills up or the batch window elapses.
+// When a bulk endpoint is configured, larger batches are sent to it as gzip-compressed NDJSON instead. Batches
+// that cannot be delivered are written to the spool and replayed once the server accepts requests again.
+public class LogShipper {
+    private static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private static final int QUEUE_CAPACITY = 1000;
+    private static final int MAX_BATCH_SIZE = 50;
+    private static final int MAX_BULK_BATCH_SIZE = 500;
+    private static final long BATCH_WINDOW_MILLIS = 2000;
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(15);
+    private static final long REPLAY_INTERVAL_MILLIS = 30_000;
+
+    private final String loggingApiUrl;
+    private final String loggingApiKey;
+    private final String bulkApiUrl;
+    private final boolean sendArrays;
+    private final int maxBatchSize;
+    private final TelemetrySpool spool;
+    private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    // Events that did not fit in the queue, written to the spool by the shipper thread
+    private final BlockingQueue<String> overflow = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread shipperThread;
+    private volatile boolean running = true;
+    private long lastReplayAttemptMillis = 0;
+
+    public LogShipper(String loggingApiUrl, String loggingApiKey, String bulkApiUrl, TelemetrySpool spool) {
+        this(loggingApiUrl, loggingApiKey, bulkApiUrl, false, spool);
+    }
+
+    // The bulk URL may be null to send every batch to the regular endpoint. Without sendArrays the regular
+    // endpoint gets one event per request. The spool may be null, in which case undeliverable events are dropped.
+    public LogShipper(String loggingApiUrl, String loggingApiKey, String bulkApiUrl, boolean sendArrays,
+                      TelemetrySpool spool) {
+        this.loggingApiUrl = loggingApiUrl;
+        this.loggingApiKey = loggingApiKey;
+        this.bulkApiUrl = bulkApiUrl;
+        this.sendArrays = sendArrays;
+        this.maxBatchSize = bulkApiUrl != null ? MAX_BULK_BATCH_SIZE : sendArrays ? MAX_BATCH_SIZE : 1;
+        this.spool = spool;
+        this.shipperThread = new Thread(this::runLoop, "BlackBoxFunctions log shipper");
+        this.shipperThread.setDaemon(true);
+        this.shipperThread.start();
+    }
+
+    // Queues an event for sending without waiting on the network or the disk. Events that do not fit in the queue
+    // are handed to the shipper thread to spool. Returns false if the event had to be dropped.
+    public boolean submit(String event) {
+        if (running && (queue.offer(event) || (spool != null && overflow.offer(event)))) {
+            return true;
+        }
+        PluginMetrics.increment(PluginMetrics.TELEMETRY_DROPPED_EVENTS);
+        System.out.println("Log queue full or closed, dropping event: " + event);
+        return false;
+    }
+
+    // Opens the connection to the logging server ahead of the first batch, so the batch can reuse it. The
+    // request has no body and its response is ignored.
+    public void prewarmConnection() {
+        long startNanos = System.nanoTime();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(bulkApiUrl != null ? bulkApiUrl : loggingApiUrl))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .timeout(REQUEST_TIMEOUT)
+                .build();
+        HTTP_CLIENT.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, throwable) -> {
+            if (throwable != null) {
+                System.out.println("Could not pre-warm the logging connection: " + throwable.getMessage());
+            } else {
+                PluginMetrics.recordSince(PluginMetrics.TELEMETRY_PREWARM, startNanos);
+            }
+        });
+    }
+
+    // Stops the shipper thread after sending whatever is still queued.
+    public void shutdown() {
+        running = false;
+        shipperThread.interrupt();
+    }
+
+    private void runLoop() {
+        List<String> batch = new ArrayList<>(maxBatchSize);
+        while (running) {
+            try {
+                spoolOverflow();
+                String first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    replaySpool(false);
+                    continue;
+                }
+                batch.add(first);
+
+                // Collect further events until the batch is full or the batch window has elapsed
+                long deadline = System.currentTimeMillis() + BATCH_WINDOW_MILLIS;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    String next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                if (deliverBatch(batch)) {
+                    // The server is reachable again, catch up on anything spooled during the outage
+                    replaySpool(true);
+                }
+                batch.clear();
+            } catch (InterruptedException e) {
+                // Interrupted by shutdown, fall through to the final flush
+                break;
+            }
+        }
+
+        // Clear a pending interrupt so the final flush can still reach the server
+        Thread.interrupted();
+        spoolOverflow();
+        queue.drainTo(batch);
+        for (int start = 0; start < batch.size(); start += maxBatchSize) {
+            deliverBatch(batch.subList(start, Math.min(start + maxBatchSize, batch.size())));
+        }
+    }
+
+    private void spoolOverflow() {
+        List<String> events = new ArrayList<>();
+        overflow.drainTo(events);
+        if (!events.isEmpty()) {
+            spool.append(events);
+        }
+    }
+
+    private boolean deliverBatch(List<String> batch) {
+        if (sendBatch(batch)) {
+            return true;
+        }
+        if (spool != null) {
+            spool.append(batch);
+        }
+        return false;
+    }
+
+    private void replaySpool(boolean serverReachable) {
+        if (spool == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (!serverReachable && now - lastReplayAttemptMillis < REPLAY_INTERVAL_MILLIS) {
+            return;
+        }
+        lastReplayAttemptMillis = now;
+
+        if (!spool.beginReplay()) {
+            return;
+        }
+        try {
+            while (running && spool.hasPending()) {
+                TelemetrySpool.Batch spooled = spool.readBatch(maxBatchSize);
+                if (spooled.getEvents().isEmpty() || !sendBatch(spooled.getEvents())) {
+                    return;
+                }
+                spool.acknowledge(spooled.getEndOffset());
+                System.out.println("Replayed " + spooled.getEvents().size() + " spooled log events");
+            }
+        } finally {
+            spool.endReplay();
+        }
+    }
+
+    private HttpRequest createRequest(List<String> batch) {
+        // Without sendArrays every batch holds a single event
+        String body = sendArrays ? JsonEventEncoder.encodeArray(batch) : batch.get(0);
+        return HttpRequest.newBuilder()
+                .uri(URI.create(loggingApiUrl))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer " + loggingApiKey)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private HttpRequest createBulkRequest(List<String> batch) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(compressed), StandardCharsets.UTF_8)) {
+            writer.write(JsonEventEncoder.encodeNdjson(batch));
+        }
+        return HttpRequest.newBuilder()
+                .uri(URI.create(bulkApiUrl))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/x-ndjson")
+                .header("Content-Encoding", "gzip")
+                .header("Authorization", "Bearer " + loggingApiKey)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(compressed.toByteArray()))
+                .build();
+    }
+
+    private boolean sendBatch(List<String> batch) {
+        if (batch.isEmpty()) {
+            return true;
+        }
+        HttpRequest request;
+        try {
+            request = bulkApiUrl != null ? createBulkRequest(batch) : createRequest(batch);
+        } catch (IOException e) {
+            System.out.println("Error occurred while encoding log batch: " + e.getMessage());
+            return false;
+        }
+
+        System.out.println("Sending log batch of " + batch.size() + " events to " + request.uri());
+
+        long startNanos = System.nanoTime();
+        PluginEvents.TelemetrySendEvent sendEvent = new PluginEvents.TelemetrySendEvent();
+        sendEvent.begin();
+        sendEvent.eventCount = batch.size();
+        sendEvent.bulk = bulkApiUrl != null;
+        sendEvent.bytes = request.bodyPublisher().map(HttpRequest.BodyPublisher::contentLength).orElse(-1L);
+        try {
+            HttpResponse<String> httpResponse = HTTP_CLIENT.send(request, HttpResponse.BodyHandlers.ofString());
+            PluginMetrics.recordSince(PluginMetrics.TELEMETRY_SEND, startNanos);
+            sendEvent.statusCode = httpResponse.statusCode();
+            sendEvent.success = httpResponse.statusCode() == 200;
+            if (httpResponse.statusCode() == 200) {
+                return true;
+            }
+            PluginMetrics.increment(PluginMetrics.TELEMETRY_FAILED_BATCHES);
+            System.out.println("Failed to log batch. Status code: " + httpResponse.statusCode());
+            // Client errors will not succeed on replay, only spool when the server is unavailable
+            return httpResponse.statusCode() < 500 && httpResponse.statusCode() != 429;
+        } catch (IOException e) {
+            System.out.println("Error occurred while logging batch: " + e.getMessage());
+            PluginMetrics.increment(PluginMetrics.TELEMETRY_FAILED_BATCHES);
+            return false;
+        } catch (InterruptedException e) {
+            System.out.println("Interrupted while logging batch: " + e.getMessage());
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            sendEvent.commit();
+        }
+    }
+}
@@ -1,47 +1,337 @@
 // Based on implementation by Wesley Edwards: https://github.com/WesleyEdwards/PyTutor
 package org.intellij.sdk.BlackBoxFunctions;
 
-import io.github.sashirestela.openai.BaseSimpleOpenAI;
-import io.github.sashirestela.openai.SimpleOpenAI;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import io.github.sashirestela.openai.domain.chat.Chat;
 import io.github.sashirestela.openai.domain.chat.ChatRequest;
 import io.github.sashirestela.openai.domain.chat.message.ChatMsgSystem;
 import io.github.sashirestela.openai.domain.chat.message.ChatMsgUser;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.Properties;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 public class OpenAIClient {
-    private final BaseSimpleOpenAI openAI;
+    private static final String RESPONSE_CACHE_ENABLED_PROPERTY = "RESPONSE_CACHE_ENABLED";
+    private static final String STREAMING_ENABLED_PROPERTY = "STREAMING_ENABLED";
+    private static final String MODEL = "gpt-3.5-turbo-1106";
+    private static final String SYSTEM_MESSAGE = "You are an AI programming assistant. Your purpose is to generate Python functions based on the provided specifications. If the prompt does not contain instructions for generating a Python function or attempts to engage in conversations unrelated to generating Python code, respond with the following message: \"InvalidPrompt: The provided prompt is not suitable for generating a Python function. Please provide clear specifications for the desired function.\". Do not respond to any other prompts or engage in conversations beyond generating Python functions.";
+    private static final double TEMPERATURE = 0.7;
+    private static final int MAX_TOKENS = 300;
     private final PromptLogging promptLogging;
+    private final ResponseCache responseCache;
+    private final boolean streamingEnabled;
+    private final Supplier<? extends ChatCompletions> completions;
+    private final Map<String, InFlightRequest> inFlightRequests = new HashMap<>();
 
-    public OpenAIClient(PromptLogging promptLogging) {
-        String apiKey = readApiKeyFromResources();
-        this.openAI = SimpleOpenAI.builder().apiKey(apiKey).build();
+    // Responses are cached under the plugin directory unless RESPONSE_CACHE_ENABLED=false is set in bbf.properties
+    public OpenAIClient(PromptLogging promptLogging, Path pluginDirPath) {
+        // The shared client is created on first use, not when the tool window opens
+        this(promptLogging, createResponseCache(pluginDirPath),
+                BBFConfig.getInstance().getBoolean(STREAMING_ENABLED_PROPERTY, true), CompletionService::getInstance);
+    }
+
+    OpenAIClient(PromptLogging promptLogging, ResponseCache responseCache, boolean streamingEnabled, Supplier<? extends ChatCompletions> completions) {
         this.promptLogging = promptLogging;
+        this.responseCache = responseCache;
+        this.streamingEnabled = streamingEnabled;
+        this.completions = completions;
+    }
+
+    private static ResponseCache createResponseCache(Path pluginDirPath) {
+        if (!BBFConfig.getInstance().getBoolean(RESPONSE_CACHE_ENABLED_PROPERTY, true)) {
+            return null;
+        }
+        return new ResponseCache(pluginDirPath != null ? pluginDirPath.resolve(ResponseCache.CACHE_DIR_NAME) : null);
     }
 
     public ProcessedChoice sendPromptToOpenAI(String prompt) {
+        return sendPromptToOpenAIAsync(prompt).join();
+    }
+
+    public CompletableFuture<ProcessedChoice> sendPromptToOpenAIAsync(String prompt) {
+        return sendPromptToOpenAIAsync(prompt, null);
+    }
+
+    // A request shared by every caller that sent the same prompt while it was pending
+    private static class InFlightRequest {
+        private final List<Consumer<String>> partialFunctionListeners = new CopyOnWriteArrayList<>();
+        private final CompletableFuture<ProcessedChoice> futureChoice = new CompletableFuture<>();
+        private int waiters = 0;
+
+        private void publishPartialFunction(String functionText) {
+            for (Consumer<String> listener : partialFunctionListeners) {
+                listener.accept(functionText);
+            }
+        }
+    }
+
+    // Sends the prompt without blocking the caller. The returned future completes with the processed
+    // choice once the response arrives. Cancelling it closes a streamed response, which aborts its HTTP exchange;
+    // a response that is not streamed cannot be aborted and is discarded when it arrives, without being logged.
+    // When streaming is enabled and onPartialFunction is given, it receives the function text as it arrives.
+    // Sending a prompt that is already pending, after normalization, joins that request instead of making a
+    // second API call, and every caller gets the same choice. The request is only cancelled once all of its
+    // callers have cancelled.
+    public CompletableFuture<ProcessedChoice> sendPromptToOpenAIAsync(String prompt, Consumer<String> onPartialFunction) {
+        String requestKey = ResponseCache.createKey(prompt, MODEL, SYSTEM_MESSAGE, TEMPERATURE);
+        InFlightRequest inFlightRequest;
+        boolean joined;
+        synchronized (inFlightRequests) {
+            inFlightRequest = inFlightRequests.get(requestKey);
+            joined = inFlightRequest != null;
+            if (!joined) {
+                inFlightRequest = new InFlightRequest();
+                inFlightRequests.put(requestKey, inFlightRequest);
+            }
+            inFlightRequest.waiters++;
+            if (onPartialFunction != null) {
+                inFlightRequest.partialFunctionListeners.add(onPartialFunction);
+            }
+        }
+
+        if (joined) {
+            System.out.println("Joining pending request for prompt: " + prompt);
+            promptLogging.logInteraction("Joined pending request for identical prompt");
+            PluginMetrics.increment(PluginMetrics.OPENAI_COALESCED_REQUESTS);
+        } else {
+            InFlightRequest request = inFlightRequest;
+            CompletableFuture<ProcessedChoice> futureChoice = requestChoice(prompt, onPartialFunction != null ? request::publishPartialFunction : null);
+            futureChoice.whenComplete((choice, throwable) -> {
+                // No longer pending by the time any caller sees the choice
+                synchronized (inFlightRequests) {
+                    inFlightRequests.remove(requestKey, request);
+                }
+                if (throwable != null) {
+                    request.futureChoice.completeExceptionally(unwrap(throwable));
+                } else {
+                    request.futureChoice.complete(choice);
+                }
+            });
+            request.futureChoice.whenComplete((choice, throwable) -> {
+                if (request.futureChoice.isCancelled()) {
+                    futureChoice.cancel(true);
+                }
+            });
+        }
+        return followInFlightRequest(requestKey, inFlightRequest, onPartialFunction);
+    }
+
+    // Whether a request for the same prompt, after normalization, is still waiting for its response
+    public boolean isPending(String prompt) {
+        String requestKey = ResponseCache.createKey(prompt, MODEL, SYSTEM_MESSAGE, TEMPERATURE);
+        synchronized (inFlightRequests) {
+            return inFlightRequests.containsKey(requestKey);
+        }
+    }
+
+    // A future for one caller of the shared request. Cancelling it only cancels the request if no other caller
+    // is still waiting.
+    private CompletableFuture<ProcessedChoice> followInFlightRequest(String requestKey, InFlightRequest inFlightRequest, Consumer<String> onPartialFunction) {
+        CompletableFuture<ProcessedChoice> follower = new CompletableFuture<>();
+        inFlightRequest.futureChoice.whenComplete((choice, throwable) -> {
+            if (throwable != null) {
+                follower.completeExceptionally(unwrap(throwable));
+            } else {
+                follower.complete(choice);
+            }
+        });
+        follower.whenComplete((choice, throwable) -> {
+            if (!follower.isCancelled()) {
+                return;
+            }
+            boolean lastWaiter;
+            synchronized (inFlightRequests) {
+                if (onPartialFunction != null) {
+                    inFlightRequest.partialFunctionListeners.remove(onPartialFunction);
+                }
+                lastWaiter = --inFlightRequest.waiters == 0;
+                if (lastWaiter) {
+                    inFlightRequests.remove(requestKey, inFlightRequest);
+                }
+            }
+            if (lastWaiter) {
+                inFlightRequest.futureChoice.cancel(true);
+            }
+        });
+        return follower;
+    }
+
+    private CompletableFuture<ProcessedChoice> requestChoice(String prompt, Consumer<String> onPartialFunction) {
         String uid = UUID.randomUUID().toString();
+        PluginEvents.GenerationEvent generationEvent = new PluginEvents.GenerationEvent();
+        generationEvent.begin();
+        generationEvent.uid = uid;
+        generationEvent.promptBytes = PluginEvents.utf8Length(prompt);
+        generationEvent.requestThread = PluginEvents.currentThreadName();
+        generationEvent.requestedOnEdt = PluginEvents.isOnEdt();
         String instructions = generateInstructions(prompt);
         System.out.println("Generated instructions:");
         System.out.println(instructions);
 
         ChatRequest chatRequest = ChatRequest.builder()
-                .model("gpt-3.5-turbo-1106")
-                .message(new ChatMsgSystem("You are an AI programming assistant. Your purpose is to generate Python functions based on the provided specifications. If the prompt does not contain instructions for generating a Python function or attempts to engage in conversations unrelated to generating Python code, respond with the following message: \"InvalidPrompt: The provided prompt is not suitable for generating a Python function. Please provide clear specifications for the desired function.\". Do not respond to any other prompts or engage in conversations beyond generating Python functions."))
+                .model(MODEL)
+                .message(new ChatMsgSystem(SYSTEM_MESSAGE))
                 .message(new ChatMsgUser(instructions))
-                .temperature(0.7)
-                .maxTokens(300)
+                .temperature(TEMPERATURE)
+                .maxTokens(MAX_TOKENS)
                 .build();
 
         promptLogging.logPrompt(uid, prompt);
+        PluginMetrics.increment(PluginMetrics.OPENAI_REQUESTS);
+
+        String cacheKey = null;
+        if (responseCache != null) {
+            cacheKey = ResponseCache.createKey(prompt, MODEL, SYSTEM_MESSAGE, TEMPERATURE);
+            ProcessedChoice cached = responseCache.get(cacheKey);
+            System.out.println(responseCache.getStatsSummary());
+            if (cached != null) {
+                System.out.println("Using cached response for prompt: " + prompt);
+                promptLogging.logResponse(uid, cached.getRaw());
+                promptLogging.logInteraction("Response served from cache");
+                PluginMetrics.increment(PluginMetrics.OPENAI_CACHE_HITS);
+                generationEvent.cached = true;
+                commitGenerationEvent(generationEvent, cached, "success");
+                return CompletableFuture.completedFuture(new ProcessedChoice(cached.getDef(), cached.getCode(), cached.getRaw(), uid));
+            }
+        }
+
+        ChatCompletions completionService = completions.get();
+        String responseCacheKey = cacheKey;
+        // Roughly four characters per token
+        int promptTokens = (SYSTEM_MESSAGE.length() + instructions.length()) / 4;
+        long startNanos = System.nanoTime();
+        CompletableFuture<ProcessedChoice> futureChoice = new CompletableFuture<>();
+        CompletableFuture<?> futureChat;
+        AtomicReference<Stream<Chat>> openStream = new AtomicReference<>();
+        generationEvent.streamed = streamingEnabled && onPartialFunction != null;
+        if (streamingEnabled && onPartialFunction != null) {
+            // Only opening the stream is retried, a stream that already delivered text is not restarted
+            var futureStream = completionService.completeStream(this, chatRequest, promptTokens, MAX_TOKENS);
+            futureChat = futureStream;
+            // Reading the stream blocks until the last chunk, so it runs on a pooled thread rather than on the HTTP
+            // client's thread that completed the future
+            futureStream.whenCompleteAsync((chatStream, throwable) -> {
+                if (throwable != null) {
+                    futureChoice.completeExceptionally(unwrap(throwable));
+                    return;
+                }
+                openStream.set(chatStream);
+                try {
+                    String rawResponse = readFunctionStream(chatStream, onPartialFunction, futureChoice);
+                    if (rawResponse != null) {
+                        futureChoice.complete(cacheChoice(responseCacheKey, processResponse(rawResponse, uid)));
+                    }
+                } catch (RuntimeException e) {
+                    futureChoice.completeExceptionally(e);
+                }
+            }, AppExecutorUtil.getAppExecutorService());
+        } else {
+            var futureResponse = completionService.complete(this, chatRequest, promptTokens, MAX_TOKENS);
+            futureChat = futureResponse;
+            futureResponse.whenComplete((chatResponse, throwable) -> {
+                if (throwable != null) {
+                    futureChoice.completeExceptionally(unwrap(throwable));
+                    return;
+                }
+                try {
+                    futureChoice.complete(cacheChoice(responseCacheKey, processResponse(chatResponse.firstContent(), uid)));
+                } catch (RuntimeException e) {
+                    futureChoice.completeExceptionally(e);
+                }
+            });
+        }
+
+        completionService.enforceDeadline(futureChoice);
+
+        // Cancelling the caller's future, or its deadline passing, cancels the pending chat future and closes the
+        // stream if one is open. Closing the stream is what ends the HTTP exchange, cancelling the future only
+        // means its result is discarded.
+        futureChoice.whenComplete((choice, throwable) -> {
+            if (throwable != null) {
+                futureChat.cancel(true);
+                Stream<Chat> chatStream = openStream.get();
+                if (chatStream != null) {
+                    chatStream.close();
+                }
+            }
+            if (futureChoice.isCancelled()) {
+                System.out.println("Prompt request cancelled: " + uid);
+                commitGenerationEvent(generationEvent, null, "cancelled");
+            } else if (throwable != null) {
+                PluginMetrics.increment(PluginMetrics.OPENAI_ERRORS);
+                commitGenerationEvent(generationEvent, null, "error");
+            } else {
+                PluginMetrics.recordSince(PluginMetrics.OPENAI_ROUND_TRIP, startNanos);
+                commitGenerationEvent(generationEvent, choice, "success");
+            }
+        });
+        return futureChoice;
+    }
+
+    private static void commitGenerationEvent(PluginEvents.GenerationEvent generationEvent, ProcessedChoice choice, String outcome) {
+        generationEvent.end();
+        if (generationEvent.shouldCommit()) {
+            generationEvent.outcome = outcome;
+            if (choice != null) {
+                generationEvent.responseBytes = PluginEvents.utf8Length(choice.getRaw());
+                generationEvent.functionName = FunctionLibraryParser.extractFunctionName(choice.getDef());
+            }
+            generationEvent.commit();
+        }
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        return throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+    }
 
-        var futureChat = openAI.chatCompletions().create(chatRequest);
-        var chatResponse = futureChat.join();
-        String rawResponse = chatResponse.firstContent();
+    // Reads streamed chunks until the "# End" marker is seen, then closes the stream so the remaining tokens
+    // are never received. Returns the raw text read so far, or null if the caller cancelled in the meantime.
+    private String readFunctionStream(Stream<Chat> chatStream, Consumer<String> onPartialFunction, CompletableFuture<ProcessedChoice> futureChoice) {
+        FunctionStreamParser parser = new FunctionStreamParser();
+        try (chatStream) {
+            Iterator<Chat> chunks = chatStream.iterator();
+            while (chunks.hasNext()) {
+                if (futureChoice.isDone()) {
+                    return null;
+                }
+                Chat chunk = chunks.next();
+                if (chunk.getChoices() == null || chunk.getChoices().isEmpty() || chunk.firstContent() == null) {
+                    continue;
+                }
+                boolean ended = parser.accept(chunk.firstContent());
+                if (parser.isStarted()) {
+                    onPartialFunction.accept(parser.getFunctionText());
+                }
+                if (ended) {
+                    System.out.println("End marker received, closing completion stream");
+                    break;
+                }
+            }
+        }
+        // A stream closed by a cancelling caller ends early, its text is not a response
+        return futureChoice.isDone() ? null : parser.getRawText();
+    }
 
+    private ProcessedChoice cacheChoice(String cacheKey, ProcessedChoice processedChoice) {
+        // Only cache responses that produced a usable function
+        if (cacheKey != null && !processedChoice.getDef().isEmpty()) {
+            responseCache.put(cacheKey, processedChoice);
+        }
+        return processedChoice;
+    }
+
+    private ProcessedChoice processResponse(String rawResponse, String uid) {
         promptLogging.logResponse(uid, rawResponse);
 
         System.out.println("Raw response:");
@@ -52,7 +342,9 @@ public class OpenAIClient {
             return new ProcessedChoice("", "", rawResponse, uid);
         }
 
+        long parseStartNanos = System.nanoTime();
         ProcessedChoice processedChoice = getFunctionFromGPT(rawResponse, uid);
+        PluginMetrics.recordSince(PluginMetrics.RESPONSE_PARSE, parseStartNanos);
         System.out.println("Processed function definition:");
         System.out.println(processedChoice.getDef());
         System.out.println("Processed function code:");
@@ -91,7 +383,8 @@ public class OpenAIClient {
         }
     }
 
-    private ProcessedChoice getFunctionFromGPT(String gptRes, String uid) {
+    // Static and package-private so the benchmarks can call it without creating a client
+    static ProcessedChoice getFunctionFromGPT(String gptRes, String uid) {
         String[] parts = gptRes.split("# Start");
         if (parts.length < 2) {
             return new ProcessedChoice("", "", "No function found with # Start and # End comments", uid);
@@ -126,20 +419,4 @@ public class OpenAIClient {
         };
         return String.join("\n", lines);
     }
-
-    private String readApiKeyFromResources() {
-        try (InputStream inputStream = getClass().getResourceAsStream("/bbf.properties")) {
-            Properties properties = new Properties();
-            properties.load(inputStream);
-            String apiKey = properties.getProperty("OPENAI_API_KEY");
-            if (apiKey != null && !apiKey.isEmpty()) {
-//                System.out.println("API key found in bbf.properties file: " + apiKey);
-                return apiKey;
-            } else {
-                throw new IllegalStateException("API key not found in bbf.properties file");
-            }
-        } catch (IOException e) {
-            throw new IllegalStateException("Error reading bbf.properties file", e);
-        }
-    }
-}
\ No newline at end of file
+}
@@ -18,6 +18,7 @@ import java.nio.file.Paths;
 public class PathManager {
     public static final String FUNCTION_MANAGER_FILE_NAME = "generated_functions.py";
     public static final String PLUGIN_DIR_NAME = ".blackbox_functions";
+    public static final String FUNCTION_SOURCES_DIR_NAME = "sources";
 
     public static Path getPluginDirPath(Project project) {
         String basePath = project.getBasePath();
@@ -28,6 +29,11 @@ public class PathManager {
         }
     }
 
+    // Source of a generated function, kept so the function can be recompiled for a different interpreter
+    public static Path getFunctionSourcePath(Project project, String functionName) {
+        return getPluginDirPath(project).resolve(FUNCTION_SOURCES_DIR_NAME).resolve(functionName + ".py");
+    }
+
     public static void addPluginDirToPythonPath(Project project) {
         Sdk pythonSdk = ProjectRootManager.getInstance(project).getProjectSdk();
         if (pythonSdk != null) {
@@ -0,0 +1,202 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import javax.swing.*;
+
+// Java Flight Recorder events for the plugin's stages, shown under "BlackBoxFunctions" in a recording. JFR
+// records the thread that committed each event. Stages that start on one thread and finish on another also
+// carry the starting thread and whether it was the EDT, so a recording shows which stage held up the UI.
+// Events cost next to nothing unless a recording with them enabled is running.
+public final class PluginEvents {
+    private static final String CATEGORY = "BlackBoxFunctions";
+
+    private PluginEvents() {
+    }
+
+    public static String currentThreadName() {
+        return Thread.currentThread().getName();
+    }
+
+    public static boolean isOnEdt() {
+        return SwingUtilities.isEventDispatchThread();
+    }
+
+    // Size of the text in UTF-8, the encoding it is sent and stored in, counted without encoding it
+    public static long utf8Length(String text) {
+        if (text == null) {
+            return 0;
+        }
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // An unpaired surrogate is encoded as '?'
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    @Name("org.intellij.sdk.BlackBoxFunctions.Generation")
+    @Label("Function Generation")
+    @Description("OpenAI request from sending the prompt until the processed response is available")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class GenerationEvent extends Event {
+        @Label("UID")
+        public String uid;
+        @Label("Function Name")
+        public String functionName;
+        @Label("Prompt Length")
+        @DataAmount
+        public long promptBytes;
+        @Label("Response Length")
+        @DataAmount
+        public long responseBytes;
+        @Label("Streamed")
+        public boolean streamed;
+        @Label("Cached")
+        public boolean cached;
+        @Label("Outcome")
+        public String outcome;
+        @Label("Requesting Thread")
+        public String requestThread;
+        @Label("Requested on EDT")
+        public boolean requestedOnEdt;
+    }
+
+    @Name("org.intellij.sdk.BlackBoxFunctions.Compile")
+    @Label("Function Compilation")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class CompileEvent extends Event {
+        @Label("Function Name")
+        public String functionName;
+        @Label("Source Size")
+        @DataAmount
+        public long sourceBytes;
+        @Label("Cache Hit")
+        public boolean cacheHit;
+        @Label("Success")
+        public boolean success;
+        @Label("Message")
+        public String message;
+    }
+
+    @Name("org.intellij.sdk.BlackBoxFunctions.CompileWorkerExit")
+    @Label("Compile Worker Exit")
+    @Description("The Python compile worker exited while a request was pending")
+    @Category(CATEGORY)
+    public static class CompileWorkerExitEvent extends Event {
+        @Label("Interpreter")
+        public String interpreter;
+        @Label("Exit Code")
+        public int exitCode;
+    }
+
+    @Name("org.intellij.sdk.BlackBoxFunctions.LibraryWrite")
+    @Label("Library Write")
+    @Description("Writing a function to the library, from the call until its entry is appended")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class LibraryWriteEvent extends Event {
+        @Label("Function Name")
+        public String functionName;
+        @Label("UID")
+        public String uid;
+        @Label("Bytes Written")
+        @DataAmount
+        public long bytes;
+        @Label("Offset")
+        public long offset;
+        @Label("Success")
+        public boolean success;
+        @Label("Requesting Thread")
+        public String requestThread;
+        @Label("Requested on EDT")
+        public boolean requestedOnEdt;
+    }
+
+    @Name("org.intellij.sdk.BlackBoxFunctions.LibraryDelete")
+    @Label("Library Delete")
+    @Description("Deleting a function from the library, from the call until its block is tombstoned or removed")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class LibraryDeleteEvent extends Event {
+        @Label("Function Name")
+        public String functionName;
+        @Label("UID")
+        public String uid;
+        @Label("Mode")
+        public String mode;
+        @Label("Success")
+        public boolean success;
+        @Label("Requesting Thread")
+        public String requestThread;
+        @Label("Requested on EDT")
+        public boolean requestedOnEdt;
+    }
+
+    @Name("org.intellij.sdk.BlackBoxFunctions.LibraryIo")
+    @Label("Library I/O")
+    @Description("One operation of the library's single writer thread")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class LibraryIoEvent extends Event {
+        @Label("Operation")
+        public String operation;
+        @Label("Functions")
+        public int functionCount;
+        @Label("Bytes Written")
+        @DataAmount
+        public long bytes;
+        @Label("Success")
+        public boolean success;
+    }
+
+    @Name("org.intellij.sdk.BlackBoxFunctions.VfsRefresh")
+    @Label("VFS Refresh")
+    @Description("Refresh of the changed library files, from scheduling until the refresh finished")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class VfsRefreshEvent extends Event {
+        @Label("Files")
+        public int fileCount;
+        @Label("Requesting Thread")
+        public String requestThread;
+    }
+
+    @Name("org.intellij.sdk.BlackBoxFunctions.TelemetrySend")
+    @Label("Telemetry Send")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class TelemetrySendEvent extends Event {
+        @Label("Events")
+        public int eventCount;
+        @Label("Request Size")
+        @DataAmount
+        public long bytes;
+        @Label("Bulk")
+        public boolean bulk;
+        @Label("Status Code")
+        public int statusCode;
+        @Label("Success")
+        public boolean success;
+    }
+}
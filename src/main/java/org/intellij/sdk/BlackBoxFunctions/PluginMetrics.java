@@ -0,0 +1,179 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency histograms and counters for each stage of the plugin, kept for the lifetime of the IDE. Recording is
+// lock-free so it can be called from the EDT and background threads alike. The diagnostics tab shows a summary
+// and snapshots can be exported as JSON.
+public class PluginMetrics {
+    public static final String OPENAI_ROUND_TRIP = "openai.roundTrip";
+    public static final String RESPONSE_PARSE = "response.parse";
+    public static final String COMPILE = "compile";
+    public static final String LIBRARY_READ = "library.read";
+    public static final String LIBRARY_WRITE = "library.write";
+    public static final String LIBRARY_DELETE = "library.delete";
+    public static final String LIBRARY_REWRITE = "library.rewrite";
+    public static final String VFS_REFRESH = "vfs.refresh";
+    public static final String TELEMETRY_SEND = "telemetry.send";
+    public static final String OPENAI_PREWARM = "openai.prewarm";
+    public static final String TELEMETRY_PREWARM = "telemetry.prewarm";
+
+    public static final String OPENAI_REQUESTS = "openai.requests";
+    public static final String OPENAI_CACHE_HITS = "openai.cacheHits";
+    public static final String OPENAI_ERRORS = "openai.errors";
+    public static final String OPENAI_RETRIES = "openai.retries";
+    public static final String OPENAI_TIMEOUTS = "openai.timeouts";
+    public static final String OPENAI_CIRCUIT_REJECTIONS = "openai.circuitRejections";
+    public static final String OPENAI_COALESCED_REQUESTS = "openai.coalescedRequests";
+    public static final String COMPILE_CACHE_HITS = "compile.cacheHits";
+    public static final String COMPILE_FAILURES = "compile.failures";
+    public static final String LIBRARY_APPENDED_FUNCTIONS = "library.appendedFunctions";
+    public static final String TELEMETRY_EVENTS = "telemetry.events";
+    public static final String TELEMETRY_FAILED_BATCHES = "telemetry.failedBatches";
+    public static final String TELEMETRY_DROPPED_EVENTS = "telemetry.droppedEvents";
+
+    private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final long startedMillis = System.currentTimeMillis();
+
+    // Latencies are bucketed by powers of two in microseconds, bucket i holds values below 2^i microseconds
+    private static class Histogram {
+        private static final int BUCKET_COUNT = 40;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalMicros = new LongAdder();
+        private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+        private void record(long micros) {
+            int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, micros)));
+            buckets.incrementAndGet(bucket);
+            count.increment();
+            totalMicros.add(micros);
+            maxMicros.accumulate(micros);
+        }
+
+        // Upper bound of the bucket holding the given percentile
+        private long percentileMicros(double percentile) {
+            long total = 0;
+            long[] snapshot = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return Math.min(1L << i, maxMicros.get());
+                }
+            }
+            return maxMicros.get();
+        }
+    }
+
+    public static void recordLatency(String stage, long nanos) {
+        histograms.computeIfAbsent(stage, key -> new Histogram()).record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    // Records the time since startNanos, taken from System.nanoTime()
+    public static void recordSince(String stage, long startNanos) {
+        recordLatency(stage, System.nanoTime() - startNanos);
+    }
+
+    public static void increment(String counter) {
+        add(counter, 1);
+    }
+
+    public static void add(String counter, long amount) {
+        counters.computeIfAbsent(counter, key -> new LongAdder()).add(amount);
+    }
+
+    // Human-readable summary, one line per stage and counter
+    public static String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("%-20s %8s %10s %10s %10s %10s%n", "Stage", "Count", "Mean ms", "p50 ms", "p95 ms", "Max ms"));
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+            Histogram histogram = entry.getValue();
+            long count = histogram.count.sum();
+            summary.append(String.format("%-20s %8d %10.1f %10.1f %10.1f %10.1f%n", entry.getKey(), count,
+                    count > 0 ? histogram.totalMicros.sum() / 1000.0 / count : 0.0,
+                    histogram.percentileMicros(0.50) / 1000.0,
+                    histogram.percentileMicros(0.95) / 1000.0,
+                    histogram.maxMicros.get() / 1000.0));
+        }
+        summary.append(String.format("%n%-28s %10s%n", "Counter", "Value"));
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            summary.append(String.format("%-28s %10d%n", entry.getKey(), entry.getValue().sum()));
+        }
+        return summary.toString();
+    }
+
+    // Snapshot of all histograms, with their raw bucket counts, and counters as JSON
+    public static String getSnapshotJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"startedMillis\":").append(startedMillis);
+        json.append(",\"snapshotMillis\":").append(System.currentTimeMillis());
+        json.append(",\"histograms\":{");
+        boolean first = true;
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+            Histogram histogram = entry.getValue();
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            JsonEventEncoder.appendString(json, entry.getKey());
+            json.append(":{\"count\":").append(histogram.count.sum())
+                    .append(",\"totalMicros\":").append(histogram.totalMicros.sum())
+                    .append(",\"maxMicros\":").append(histogram.maxMicros.get())
+                    .append(",\"p50Micros\":").append(histogram.percentileMicros(0.50))
+                    .append(",\"p95Micros\":").append(histogram.percentileMicros(0.95))
+                    .append(",\"p99Micros\":").append(histogram.percentileMicros(0.99))
+                    .append(",\"bucketsLog2Micros\":[");
+            for (int i = 0; i < Histogram.BUCKET_COUNT; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append(histogram.buckets.get(i));
+            }
+            json.append("]}");
+        }
+        json.append("},\"counters\":{");
+        first = true;
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            JsonEventEncoder.appendString(json, entry.getKey());
+            json.append(':').append(entry.getValue().sum());
+        }
+        return json.append("}}").toString();
+    }
+
+    // Writes a snapshot into the directory and returns the path of the written file
+    public static Path exportSnapshot(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Path snapshotFilePath = directory.resolve("metrics-" + System.currentTimeMillis() + ".json");
+        Files.writeString(snapshotFilePath, getSnapshotJson());
+        return snapshotFilePath;
+    }
+
+    public static void reset() {
+        histograms.clear();
+        counters.clear();
+    }
+}
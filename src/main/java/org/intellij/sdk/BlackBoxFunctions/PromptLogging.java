@@ -3,29 +3,58 @@ package org.intellij.sdk.BlackBoxFunctions;
 import com.intellij.openapi.project.Project;
 
 import java.io.*;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.util.Properties;
 
 public class PromptLogging {
     private static final String LOGGING_API_URL_PROPERTY = "LOGGING_API_URL";
     private static final String LOGGING_API_KEY_PROPERTY = "LOGGING_API_KEY";
+    private static final String LOGGING_BULK_API_URL_PROPERTY = "LOGGING_BULK_API_URL";
+    private static final String LOGGING_SEND_ARRAYS_PROPERTY = "LOGGING_SEND_ARRAYS";
     private final String loggingApiUrl;
     private final String loggingApiKey;
     private final String sessionId;
     private final Project project;
+    private final LogShipper logShipper;
+    private final JsonEventEncoder eventEncoder = new JsonEventEncoder();
 
     public PromptLogging(Project project) {
-        Properties properties = readPropertiesFromResources();
-        this.loggingApiUrl = properties.getProperty(LOGGING_API_URL_PROPERTY);
-        this.loggingApiKey = properties.getProperty(LOGGING_API_KEY_PROPERTY);
-        if (loggingApiUrl == null || loggingApiUrl.isEmpty() || loggingApiKey == null || loggingApiKey.isEmpty()) {
+        BBFConfig config = BBFConfig.getInstance();
+        this.loggingApiUrl = config.getString(LOGGING_API_URL_PROPERTY);
+        this.loggingApiKey = config.getString(LOGGING_API_KEY_PROPERTY);
+        if (loggingApiUrl == null || loggingApiKey == null) {
             throw new IllegalStateException("Logging API URL or API key not found in bbf.properties file");
         }
         this.sessionId = generateSessionId();
         this.project = project;
+        // Batches go to the bulk endpoint when one is configured. Arrays are only posted to the regular endpoint
+        // when enabled, since older servers accept a single event object per request.
+        this.logShipper = new LogShipper(loggingApiUrl, loggingApiKey, config.getString(LOGGING_BULK_API_URL_PROPERTY),
+                config.getBoolean(LOGGING_SEND_ARRAYS_PROPERTY, false), createSpool(project));
+    }
+
+    // Logs through the given shipper, for code that runs without a project
+    PromptLogging(LogShipper logShipper) {
+        this.loggingApiUrl = null;
+        this.loggingApiKey = null;
+        this.sessionId = generateSessionId();
+        this.project = null;
+        this.logShipper = logShipper;
+    }
+
+    public void prewarmConnection() {
+        logShipper.prewarmConnection();
+    }
+
+    // Flushes queued events and stops the background shipper
+    public void dispose() {
+        logShipper.shutdown();
+    }
+
+    private static TelemetrySpool createSpool(Project project) {
+        TelemetrySpool spool = TelemetrySpool.getInstance(project);
+        if (spool == null) {
+            System.out.println("Project base path is null. Undeliverable log events will not be spooled.");
+        }
+        return spool;
     }
 
     public String getSessionId() {
@@ -37,76 +66,50 @@ public class PromptLogging {
     }
 
     public void logPrompt(String id, String prompt) {
-        String requestBody = String.format("{\"EventType\": \"Prompt\", \"AssignmentID\": \"%s\", \"SubjectID\": \"%s\", \"Entry\": \"Prompt\", \"ClientTimestamp\": \"%d\", \"X-Metadata\": \"%s\"}",
-                escapeJson(getSessionId()), escapeJson(id), System.currentTimeMillis(), escapeJson(prompt));
+        String requestBody = eventEncoder.encodeEvent("Prompt", getSessionId(), id, System.currentTimeMillis(), prompt);
 //        appendToLocalLog("Prompt", "", "", "", System.currentTimeMillis(), "", "", "", prompt, "", "", "", id, getSessionId());
         sendLogRequest(requestBody);
     }
 
     public void logResponse(String id, String response) {
-        String requestBody = String.format("{\"EventType\": \"Response\", \"AssignmentID\": \"%s\", \"SubjectID\": \"%s\", \"Entry\": \"Response\", \"ClientTimestamp\": \"%d\", \"X-Metadata\": \"%s\"}",
-                escapeJson(getSessionId()), escapeJson(id), System.currentTimeMillis(), escapeJson(response));
+        String requestBody = eventEncoder.encodeEvent("Response", getSessionId(), id, System.currentTimeMillis(), response);
         sendLogRequest(requestBody);
     }
 
     public void logInteraction(String interaction) {
-        String requestBody = String.format("{\"EventType\": \"Interaction\", \"AssignmentID\": \"%s\", \"Entry\": \"Interaction\", \"ClientTimestamp\": \"%d\", \"X-Metadata\": \"%s\"}",
-                escapeJson(getSessionId()), System.currentTimeMillis(), escapeJson(interaction));
+        String requestBody = eventEncoder.encodeEvent("Interaction", getSessionId(), null, System.currentTimeMillis(), interaction);
 //        appendToLocalLog("Interaction", "", "", "", System.currentTimeMillis(), "", "", "", interaction, "", "", "", "", getSessionId());
         sendLogRequest(requestBody);
     }
 
     public void logDeletion(String id, String deletion) {
-        String requestBody = String.format("{\"EventType\": \"Deletion\", \"AssignmentID\": \"%s\", \"SubjectID\": \"%s\", \"Entry\": \"Deletion\", \"ClientTimestamp\": \"%d\", \"X-Metadata\": \"%s\"}",
-                escapeJson(getSessionId()), escapeJson(id), System.currentTimeMillis(), escapeJson(deletion));
+        String requestBody = eventEncoder.encodeEvent("Deletion", getSessionId(), id, System.currentTimeMillis(), deletion);
 //        appendToLocalLog("Deletion", "", "", "", System.currentTimeMillis(), "", "", "", deletion, "", "", "", id, getSessionId());
         sendLogRequest(requestBody);
     }
 
     public void logSession(String session) {
-        String requestBody = String.format("{\"EventType\": \"Session\", \"AssignmentID\": \"%s\", \"Entry\": \"Session\", \"ClientTimestamp\": \"%d\", \"X-Metadata\": \"%s\"}",
-                escapeJson(getSessionId()), System.currentTimeMillis(), escapeJson(session));
+        String requestBody = eventEncoder.encodeEvent("Session", getSessionId(), null, System.currentTimeMillis(), session);
         sendLogRequest(requestBody);
     }
 
     public void logRecall(String id, String prompt) {
-        String requestBody = String.format("{\"EventType\": \"Recall\", \"AssignmentID\": \"%s\", \"SubjectID\": \"%s\", \"Entry\": \"Recall\", \"ClientTimestamp\": \"%d\", \"X-Metadata\": \"%s\"}",
-                escapeJson(getSessionId()), escapeJson(id), System.currentTimeMillis(), escapeJson(prompt));
+        String requestBody = eventEncoder.encodeEvent("Recall", getSessionId(), id, System.currentTimeMillis(), prompt);
 //        appendToLocalLog("Recall", "", "", "", System.currentTimeMillis(), "", "", "", prompt, "", "", "", id, getSessionId());
         sendLogRequest(requestBody);
     }
 
     public void logError(String id, String error) {
-        String requestBody = String.format("{\"EventType\": \"Error\", \"AssignmentID\": \"%s\", \"SubjectID\": \"%s\", \"Entry\": \"Error\", \"ClientTimestamp\": \"%d\", \"X-Metadata\": \"%s\"}",
-                escapeJson(getSessionId()), escapeJson(id), System.currentTimeMillis(), escapeJson(error));
+        String requestBody = eventEncoder.encodeEvent("Error", getSessionId(), id, System.currentTimeMillis(), error);
 //        appendToLocalLog("Error", "", "", "", System.currentTimeMillis(), "", "", "", error, "", "", "", id, getSessionId());
         sendLogRequest(requestBody);
     }
 
     private void sendLogRequest(String requestBody) {
-        HttpClient client = HttpClient.newHttpClient();
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(loggingApiUrl))
-                .header("Content-Type", "application/json")
-                .header("Authorization", "Bearer " + loggingApiKey)
-                .POST(HttpRequest.BodyPublishers.ofString(requestBody))
-                .build();
-
-        System.out.println("Sending log request:");
-        System.out.println("URL: " + loggingApiUrl);
-        System.out.println("Request Body: " + requestBody);
-
-        try {
-            HttpResponse<String> httpResponse = client.send(request, HttpResponse.BodyHandlers.ofString());
-            System.out.println("Log response received:");
-            System.out.println("Status Code: " + httpResponse.statusCode());
-            System.out.println("Response Body: " + httpResponse.body());
-            if (httpResponse.statusCode() != 200) {
-                System.out.println("Failed to log entry. Status code: " + httpResponse.statusCode());
-            }
-        } catch (IOException | InterruptedException e) {
-            System.out.println("Error occurred while logging entry: " + e.getMessage());
-        }
+        // Events are sent in batches by the shipper thread so callers (often the EDT) never wait on the network
+        System.out.println("Queueing log request: " + requestBody);
+        logShipper.submit(requestBody);
+        PluginMetrics.increment(PluginMetrics.TELEMETRY_EVENTS);
     }
 
     // TODO: This is not probably a good idea, as I have no idea how the local logging is supposed to work and I could be appending info to columns where it isn't supposed to be.
@@ -156,21 +159,7 @@ public class PromptLogging {
         }
     }
 
-    private static String escapeJson(String input) {
-        // Escape backslashes and double quotes
-        String escaped = input.replace("\\", "\\\\").replace("\"", "\\\"");
-        // Remove line breaks
-        escaped = escaped.replace("\n", "\\n");
-        return escaped;
-    }
-
-    private Properties readPropertiesFromResources() {
-        try (InputStream inputStream = getClass().getResourceAsStream("/bbf.properties")) {
-            Properties properties = new Properties();
-            properties.load(inputStream);
-            return properties;
-        } catch (IOException e) {
-            throw new IllegalStateException("Error reading bbf.properties file", e);
-        }
+    static String escapeJson(String input) {
+        return JsonEventEncoder.escape(input);
     }
 }
\ No newline at end of file
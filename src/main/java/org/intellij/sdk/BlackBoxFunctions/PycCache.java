@@ -0,0 +1,107 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Content-addressed cache of compiled functions. Entries are keyed by a hash of the function source and the
+// interpreter's bytecode magic number, so identical code compiled by a compatible interpreter is reused by
+// hard-linking or copying the cached .pyc instead of compiling it again.
+public class PycCache {
+    public static final String CACHE_DIR_NAME = "pyc_cache";
+    private static final String ENTRY_EXTENSION = ".pyc";
+    private static final long MAX_CACHE_BYTES = 64L * 1024 * 1024;
+
+    private final Path cacheDirPath;
+
+    public PycCache(Path cacheDirPath) {
+        this.cacheDirPath = cacheDirPath;
+    }
+
+    public static String createKey(String functionCode, String magicNumber) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((magicNumber + '\0' + functionCode).getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    // Places the cached .pyc for the key at the target path. Returns false if there is no entry for the key.
+    public boolean materialize(String key, Path targetFilePath) {
+        Path entryPath = cacheDirPath.resolve(key + ENTRY_EXTENSION);
+        if (!Files.exists(entryPath)) {
+            return false;
+        }
+        try {
+            Files.deleteIfExists(targetFilePath);
+            try {
+                Files.createLink(targetFilePath, entryPath);
+            } catch (IOException | UnsupportedOperationException e) {
+                // Hard links are not available across file systems or on some platforms
+                Files.copy(entryPath, targetFilePath, StandardCopyOption.REPLACE_EXISTING);
+            }
+            // Touch the entry so eviction removes the least recently used entries first
+            Files.setLastModifiedTime(entryPath, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error materializing cached .pyc: " + e.getMessage());
+            return false;
+        }
+    }
+
+    public void store(String key, Path compiledFilePath) {
+        try {
+            Files.createDirectories(cacheDirPath);
+            Path tempFile = Files.createTempFile(cacheDirPath, key, ".tmp");
+            Files.copy(compiledFilePath, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempFile, cacheDirPath.resolve(key + ENTRY_EXTENSION), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error storing compiled function in cache: " + e.getMessage());
+            return;
+        }
+        trim();
+    }
+
+    // Evicts the least recently used entries until the cache fits in its size limit
+    private void trim() {
+        try (Stream<Path> entries = Files.list(cacheDirPath)) {
+            List<Path> entryPaths = entries
+                    .filter(path -> path.getFileName().toString().endsWith(ENTRY_EXTENSION))
+                    .sorted(Comparator.comparingLong(PycCache::lastModifiedMillis))
+                    .collect(Collectors.toList());
+            long totalBytes = 0;
+            for (Path entryPath : entryPaths) {
+                totalBytes += Files.size(entryPath);
+            }
+            for (int i = 0; i < entryPaths.size() && totalBytes > MAX_CACHE_BYTES; i++) {
+                totalBytes -= Files.size(entryPaths.get(i));
+                Files.deleteIfExists(entryPaths.get(i));
+            }
+        } catch (IOException e) {
+            System.err.println("Error trimming compiled function cache: " + e.getMessage());
+        }
+    }
+
+    private static long lastModifiedMillis(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootEvent;
+import com.intellij.openapi.roots.ModuleRootListener;
+import org.jetbrains.annotations.NotNull;
+
+// Changing the project SDK fires a roots change, the recompiler then decides whether the interpreter really changed
+public class PythonSdkChangeListener implements ModuleRootListener {
+    private final Project project;
+
+    public PythonSdkChangeListener(Project project) {
+        this.project = project;
+    }
+
+    @Override
+    public void rootsChanged(@NotNull ModuleRootEvent event) {
+        LibraryRecompiler.getInstance(project).checkInterpreter();
+    }
+}
@@ -0,0 +1,227 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import com.intellij.util.concurrency.AppExecutorUtil;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Runs calls to the OpenAI API with a deadline per attempt and for the whole call, retries rate limits, server
+// errors and network failures with exponential backoff and full jitter, and fails fast through a circuit breaker
+// while the API keeps failing. All limits can be set in bbf.properties.
+public class ResilientCaller {
+    private static final String ATTEMPT_TIMEOUT_PROPERTY = "OPENAI_TIMEOUT_SECONDS";
+    private static final String DEADLINE_PROPERTY = "OPENAI_DEADLINE_SECONDS";
+    private static final String MAX_RETRIES_PROPERTY = "OPENAI_MAX_RETRIES";
+    private static final String RETRY_BASE_DELAY_PROPERTY = "OPENAI_RETRY_BASE_DELAY_MILLIS";
+    private static final String RETRY_MAX_DELAY_PROPERTY = "OPENAI_RETRY_MAX_DELAY_MILLIS";
+    private static final String CIRCUIT_FAILURE_THRESHOLD_PROPERTY = "OPENAI_CIRCUIT_FAILURE_THRESHOLD";
+    private static final String CIRCUIT_OPEN_PROPERTY = "OPENAI_CIRCUIT_OPEN_SECONDS";
+
+    // simple-openai reports HTTP errors as exceptions carrying the response body, so the status and OpenAI's
+    // "Please try again in 1.5s" hint are read from the exception messages
+    private static final Pattern RETRYABLE_STATUS_PATTERN = Pattern.compile("(?:status|code)\\D{0,16}\\b(408|409|429|5\\d\\d)\\b");
+    private static final Pattern TRY_AGAIN_PATTERN = Pattern.compile("try again in (\\d+(?:\\.\\d+)?)\\s*(ms|s)\\b");
+    private static final Pattern RETRY_AFTER_PATTERN = Pattern.compile("retry-after\\D{0,4}(\\d+)");
+
+    private final long attemptTimeoutMillis;
+    private final long deadlineMillis;
+    private final int maxRetries;
+    private final long retryBaseDelayMillis;
+    private final long retryMaxDelayMillis;
+    private final CircuitBreaker circuitBreaker;
+
+    public ResilientCaller(long attemptTimeoutMillis, long deadlineMillis, int maxRetries, long retryBaseDelayMillis,
+                           long retryMaxDelayMillis, CircuitBreaker circuitBreaker) {
+        this.attemptTimeoutMillis = attemptTimeoutMillis;
+        this.deadlineMillis = deadlineMillis;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.retryBaseDelayMillis = Math.max(1, retryBaseDelayMillis);
+        this.retryMaxDelayMillis = Math.max(this.retryBaseDelayMillis, retryMaxDelayMillis);
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public static ResilientCaller fromConfig(BBFConfig config) {
+        return new ResilientCaller(
+                TimeUnit.SECONDS.toMillis(config.getLong(ATTEMPT_TIMEOUT_PROPERTY, 30)),
+                TimeUnit.SECONDS.toMillis(config.getLong(DEADLINE_PROPERTY, 90)),
+                config.getInt(MAX_RETRIES_PROPERTY, 3),
+                config.getLong(RETRY_BASE_DELAY_PROPERTY, 500),
+                config.getLong(RETRY_MAX_DELAY_PROPERTY, 20_000),
+                new CircuitBreaker(config.getInt(CIRCUIT_FAILURE_THRESHOLD_PROPERTY, 5),
+                        TimeUnit.SECONDS.toMillis(config.getLong(CIRCUIT_OPEN_PROPERTY, 30))));
+    }
+
+    // Thrown without calling the API while the circuit breaker is open
+    public static class CircuitOpenException extends IllegalStateException {
+        public CircuitOpenException(long remainingMillis) {
+            super("OpenAI is not responding reliably right now. New requests are paused for "
+                    + Math.max(1, TimeUnit.MILLISECONDS.toSeconds(remainingMillis + 999)) + " more seconds, try again then.");
+        }
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    public boolean isCircuitOpen() {
+        return circuitBreaker.isOpen();
+    }
+
+    // Fails the future if it is still running when the call deadline passes, for work that continues after the
+    // call itself succeeded, like reading a streamed response
+    public <T> CompletableFuture<T> enforceDeadline(CompletableFuture<T> future) {
+        CompletableFuture.delayedExecutor(deadlineMillis, TimeUnit.MILLISECONDS).execute(() -> {
+            if (future.completeExceptionally(new TimeoutException("OpenAI did not finish responding within "
+                    + TimeUnit.MILLISECONDS.toSeconds(deadlineMillis) + " seconds"))) {
+                PluginMetrics.increment(PluginMetrics.OPENAI_TIMEOUTS);
+            }
+        });
+        return future;
+    }
+
+    // Calls attempt until one of its futures succeeds, a failure is not worth retrying, the retries are used
+    // up or the deadline passes. Cancelling the returned future cancels the attempt in progress.
+    public <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> attempt) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<T>> currentAttempt = new AtomicReference<>();
+        result.whenComplete((value, throwable) -> {
+            CompletableFuture<T> pending = currentAttempt.get();
+            if (throwable != null && pending != null) {
+                pending.cancel(true);
+            }
+        });
+        runAttempt(attempt, result, currentAttempt, 0, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis));
+        return result;
+    }
+
+    private <T> void runAttempt(Supplier<CompletableFuture<T>> attempt, CompletableFuture<T> result,
+                                AtomicReference<CompletableFuture<T>> currentAttempt, int retry, long deadlineNanos) {
+        if (result.isDone()) {
+            return;
+        }
+        if (!circuitBreaker.tryAcquire()) {
+            PluginMetrics.increment(PluginMetrics.OPENAI_CIRCUIT_REJECTIONS);
+            result.completeExceptionally(new CircuitOpenException(circuitBreaker.getRemainingOpenMillis()));
+            return;
+        }
+        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        long timeoutMillis = Math.max(1, Math.min(attemptTimeoutMillis, remainingMillis));
+
+        CompletableFuture<T> future;
+        try {
+            future = attempt.get();
+        } catch (RuntimeException e) {
+            circuitBreaker.release();
+            result.completeExceptionally(e);
+            return;
+        }
+        currentAttempt.set(future);
+        if (result.isDone()) {
+            // Cancelled while the attempt was being started
+            future.cancel(true);
+        }
+
+        future.copy().orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((value, throwable) -> {
+            if (throwable == null) {
+                circuitBreaker.recordSuccess();
+                result.complete(value);
+                return;
+            }
+            Throwable cause = unwrap(throwable);
+            if (result.isDone() || cause instanceof CancellationException) {
+                circuitBreaker.release();
+                result.cancel(true);
+                return;
+            }
+            if (cause instanceof TimeoutException) {
+                future.cancel(true);
+                PluginMetrics.increment(PluginMetrics.OPENAI_TIMEOUTS);
+                cause = new TimeoutException("OpenAI did not respond within " + TimeUnit.MILLISECONDS.toSeconds(timeoutMillis) + " seconds");
+            }
+            if (!isRetryable(cause)) {
+                circuitBreaker.recordSuccess();
+                result.completeExceptionally(cause);
+                return;
+            }
+
+            circuitBreaker.recordFailure();
+            long delayMillis = retryDelayMillis(retry, retryAfterMillis(cause));
+            if (retry >= maxRetries || System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis) >= deadlineNanos) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            PluginMetrics.increment(PluginMetrics.OPENAI_RETRIES);
+            System.out.println("OpenAI request failed (" + cause.getMessage() + "), retry " + (retry + 1) + " in " + delayMillis + " ms");
+            AppExecutorUtil.getAppScheduledExecutorService().schedule(
+                    () -> runAttempt(attempt, result, currentAttempt, retry + 1, deadlineNanos), delayMillis, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    // Exponential backoff with full jitter, but never sooner than the API asked for
+    private long retryDelayMillis(int retry, long retryAfterMillis) {
+        long ceiling = Math.min(retryMaxDelayMillis, retryBaseDelayMillis << Math.min(retry, 20));
+        long jittered = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        return Math.max(jittered, retryAfterMillis);
+    }
+
+    // Timeouts, network errors, rate limits and server errors can succeed on another attempt. An exhausted
+    // quota, a bad key or an invalid request cannot.
+    static boolean isRetryable(Throwable throwable) {
+        for (Throwable t = throwable; t != null; t = t.getCause()) {
+            if (t instanceof TimeoutException || t instanceof IOException) {
+                return true;
+            }
+            String message = t.getMessage() != null ? t.getMessage().toLowerCase(Locale.ROOT) : "";
+            if (message.contains("insufficient_quota")) {
+                return false;
+            }
+            if (message.contains("rate_limit") || message.contains("server_error") || message.contains("overloaded")
+                    || RETRYABLE_STATUS_PATTERN.matcher(message).find()) {
+                return true;
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    // The wait the API asked for, or 0 if it did not say
+    static long retryAfterMillis(Throwable throwable) {
+        for (Throwable t = throwable; t != null; t = t.getCause()) {
+            String message = t.getMessage() != null ? t.getMessage().toLowerCase(Locale.ROOT) : "";
+            Matcher tryAgain = TRY_AGAIN_PATTERN.matcher(message);
+            if (tryAgain.find()) {
+                double amount = Double.parseDouble(tryAgain.group(1));
+                return (long) Math.ceil(tryAgain.group(2).equals("ms") ? amount : amount * 1000);
+            }
+            Matcher retryAfter = RETRY_AFTER_PATTERN.matcher(message);
+            if (retryAfter.find()) {
+                return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.group(1)));
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return 0;
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        Throwable cause = throwable;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
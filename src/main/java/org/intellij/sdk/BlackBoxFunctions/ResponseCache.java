@@ -0,0 +1,192 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Caches processed OpenAI responses keyed by the normalized prompt and the request settings. Recently used
+// entries are kept in memory, all entries are also written to the cache directory so they survive restarts.
+public class ResponseCache {
+    public static final String CACHE_DIR_NAME = "response_cache";
+    private static final String ENTRY_EXTENSION = ".properties";
+    private static final int MAX_MEMORY_ENTRIES = 256;
+    private static final int MAX_DISK_ENTRIES = 2000;
+    private static final int PUTS_BETWEEN_DISK_TRIMS = 50;
+
+    private final Path cacheDirPath;
+    private final Map<String, OpenAIClient.ProcessedChoice> memoryEntries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, OpenAIClient.ProcessedChoice> eldest) {
+            return size() > MAX_MEMORY_ENTRIES;
+        }
+    };
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private int putsSinceDiskTrim = 0;
+
+    // The cache directory may be null, in which case only the in-memory tier is used
+    public ResponseCache(Path cacheDirPath) {
+        this.cacheDirPath = cacheDirPath;
+    }
+
+    public static String createKey(String prompt, String model, String systemMessage, double temperature) {
+        String keySource = normalizePrompt(prompt) + '\0' + model + '\0' + systemMessage + '\0' + temperature;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(keySource.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    // Prompts differing only in whitespace or letter case map to the same entry
+    static String normalizePrompt(String prompt) {
+        return prompt.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    // Returns the cached choice for the key, or null. The returned choice carries no UID.
+    public OpenAIClient.ProcessedChoice get(String key) {
+        synchronized (memoryEntries) {
+            OpenAIClient.ProcessedChoice cached = memoryEntries.get(key);
+            if (cached != null) {
+                memoryHits.incrementAndGet();
+                return cached;
+            }
+        }
+
+        OpenAIClient.ProcessedChoice stored = readFromDisk(key);
+        if (stored != null) {
+            diskHits.incrementAndGet();
+            synchronized (memoryEntries) {
+                memoryEntries.put(key, stored);
+            }
+            return stored;
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String key, OpenAIClient.ProcessedChoice processedChoice) {
+        OpenAIClient.ProcessedChoice entry = new OpenAIClient.ProcessedChoice(processedChoice.getDef(), processedChoice.getCode(), processedChoice.getRaw(), "");
+        synchronized (memoryEntries) {
+            memoryEntries.put(key, entry);
+        }
+        writeToDisk(key, entry);
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public String getStatsSummary() {
+        return String.format("Response cache: %d memory hits, %d disk hits, %d misses", getMemoryHits(), getDiskHits(), getMisses());
+    }
+
+    private OpenAIClient.ProcessedChoice readFromDisk(String key) {
+        if (cacheDirPath == null) {
+            return null;
+        }
+        Path entryPath = cacheDirPath.resolve(key + ENTRY_EXTENSION);
+        if (!Files.exists(entryPath)) {
+            return null;
+        }
+        try (InputStream inputStream = Files.newInputStream(entryPath)) {
+            Properties properties = new Properties();
+            properties.load(inputStream);
+            // Touch the entry so disk eviction removes the least recently used entries first
+            Files.setLastModifiedTime(entryPath, FileTime.fromMillis(System.currentTimeMillis()));
+            return new OpenAIClient.ProcessedChoice(
+                    properties.getProperty("def", ""),
+                    properties.getProperty("code", ""),
+                    properties.getProperty("raw", ""),
+                    "");
+        } catch (IOException e) {
+            System.err.println("Error reading response cache entry: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, OpenAIClient.ProcessedChoice entry) {
+        if (cacheDirPath == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(cacheDirPath);
+            Properties properties = new Properties();
+            properties.setProperty("def", entry.getDef());
+            properties.setProperty("code", entry.getCode());
+            properties.setProperty("raw", entry.getRaw());
+
+            Path entryPath = cacheDirPath.resolve(key + ENTRY_EXTENSION);
+            Path tempFile = Files.createTempFile(cacheDirPath, key, ".tmp");
+            try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+                properties.store(outputStream, null);
+            }
+            Files.move(tempFile, entryPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error writing response cache entry: " + e.getMessage());
+            return;
+        }
+
+        synchronized (this) {
+            if (++putsSinceDiskTrim < PUTS_BETWEEN_DISK_TRIMS) {
+                return;
+            }
+            putsSinceDiskTrim = 0;
+        }
+        trimDisk();
+    }
+
+    private void trimDisk() {
+        try (Stream<Path> entries = Files.list(cacheDirPath)) {
+            List<Path> entryPaths = entries
+                    .filter(path -> path.getFileName().toString().endsWith(ENTRY_EXTENSION))
+                    .sorted(Comparator.comparingLong(ResponseCache::lastModifiedMillis))
+                    .collect(Collectors.toList());
+            for (int i = 0; i < entryPaths.size() - MAX_DISK_ENTRIES; i++) {
+                Files.deleteIfExists(entryPaths.get(i));
+            }
+        } catch (IOException e) {
+            System.err.println("Error trimming response cache: " + e.getMessage());
+        }
+    }
+
+    private static long lastModifiedMillis(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.project.Project;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+// Append-only local spool for logging events that could not be delivered. Each record is stored as
+// [length][crc32][utf-8 bytes] so a record torn by a crash is detected and cut off when the spool is reopened.
+// The replay position is kept in a separate offset file; once everything has been replayed the spool is truncated.
+// There is one spool per project, shared by every log shipper of the project, and appends are on disk before
+// append returns. Events waiting to be replayed are capped at MAX_SPOOL_BYTES; past that the oldest are dropped.
+@Service(Service.Level.PROJECT)
+public final class TelemetrySpool implements Disposable {
+    public static final String SPOOL_FILE_NAME = "telemetry.spool";
+    public static final String OFFSET_FILE_NAME = "telemetry.spool.offset";
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;
+    static final long MAX_SPOOL_BYTES = 64L * 1024 * 1024;
+
+    private final Path spoolFilePath;
+    private final Path offsetFilePath;
+    private final AtomicBoolean replaying = new AtomicBoolean();
+    private final long maxSpoolBytes;
+    private FileChannel channel;
+    private long replayOffset;
+
+    public TelemetrySpool(Project project) {
+        this(PathManager.getPluginDirPath(project));
+    }
+
+    TelemetrySpool(Path spoolDirPath) {
+        this(spoolDirPath, MAX_SPOOL_BYTES);
+    }
+
+    TelemetrySpool(Path spoolDirPath, long maxSpoolBytes) {
+        this.spoolFilePath = spoolDirPath.resolve(SPOOL_FILE_NAME);
+        this.offsetFilePath = spoolDirPath.resolve(OFFSET_FILE_NAME);
+        this.maxSpoolBytes = maxSpoolBytes;
+    }
+
+    // The project's spool, or null if the project has no directory to keep it in
+    public static TelemetrySpool getInstance(Project project) {
+        return project.getBasePath() != null ? project.getService(TelemetrySpool.class) : null;
+    }
+
+    public static class Batch {
+        private final List<String> events;
+        private final long endOffset;
+
+        private Batch(List<String> events, long endOffset) {
+            this.events = events;
+            this.endOffset = endOffset;
+        }
+
+        public List<String> getEvents() {
+            return events;
+        }
+
+        public long getEndOffset() {
+            return endOffset;
+        }
+    }
+
+    // Appends the events to the end of the spool with a single sequential write, dropping the oldest pending
+    // events first if the spool would grow past its cap.
+    public synchronized void append(List<String> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        try {
+            List<byte[]> payloads = new ArrayList<>(events.size());
+            long totalBytes = 0;
+            for (String event : events) {
+                byte[] payload = event.getBytes(StandardCharsets.UTF_8);
+                payloads.add(payload);
+                totalBytes += RECORD_HEADER_BYTES + payload.length;
+            }
+            // A batch larger than the whole spool keeps only its newest events
+            int dropped = 0;
+            while (totalBytes > maxSpoolBytes) {
+                totalBytes -= RECORD_HEADER_BYTES + payloads.remove(0).length;
+                dropped++;
+            }
+            FileChannel spoolChannel = openChannel();
+            dropped += dropOldest(spoolChannel, totalBytes);
+            if (dropped > 0) {
+                PluginMetrics.add(PluginMetrics.TELEMETRY_DROPPED_EVENTS, dropped);
+                System.out.println("Telemetry spool is full, dropped the " + dropped + " oldest log events");
+            }
+            if (payloads.isEmpty()) {
+                return;
+            }
+            spoolChannel = openChannel();
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) totalBytes);
+            CRC32 crc = new CRC32();
+            for (byte[] payload : payloads) {
+                crc.reset();
+                crc.update(payload);
+                buffer.putInt(payload.length);
+                buffer.putInt((int) crc.getValue());
+                buffer.put(payload);
+            }
+            buffer.flip();
+
+            long position = spoolChannel.size();
+            while (buffer.hasRemaining()) {
+                position += spoolChannel.write(buffer, position);
+            }
+            spoolChannel.force(false);
+            System.out.println("Spooled " + payloads.size() + " log events to " + spoolFilePath);
+        } catch (IOException e) {
+            System.err.println("Error appending to telemetry spool: " + e.getMessage());
+        }
+    }
+
+    // Only one shipper replays the spool at a time, so a batch is not sent twice. Returns false if another
+    // shipper is replaying; otherwise endReplay must be called when done.
+    public boolean beginReplay() {
+        return replaying.compareAndSet(false, true);
+    }
+
+    public void endReplay() {
+        replaying.set(false);
+    }
+
+    public synchronized boolean hasPending() {
+        try {
+            return Files.exists(spoolFilePath) && openChannel().size() > replayOffset;
+        } catch (IOException e) {
+            System.err.println("Error checking telemetry spool: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Reads up to maxEvents records starting at the replay position without advancing it.
+    public synchronized Batch readBatch(int maxEvents) {
+        try {
+            if (!Files.exists(spoolFilePath)) {
+                return new Batch(Collections.emptyList(), replayOffset);
+            }
+            FileChannel spoolChannel = openChannel();
+            List<String> events = new ArrayList<>();
+            long position = replayOffset;
+            while (events.size() < maxEvents) {
+                byte[] payload = readRecord(spoolChannel, position);
+                if (payload == null) {
+                    break;
+                }
+                events.add(new String(payload, StandardCharsets.UTF_8));
+                position += RECORD_HEADER_BYTES + payload.length;
+            }
+            return new Batch(events, position);
+        } catch (IOException e) {
+            System.err.println("Error reading telemetry spool: " + e.getMessage());
+            return new Batch(Collections.emptyList(), replayOffset);
+        }
+    }
+
+    // Marks everything before endOffset as delivered. Truncates the spool once it has been fully replayed.
+    public synchronized void acknowledge(long endOffset) {
+        try {
+            FileChannel spoolChannel = openChannel();
+            spoolChannel.force(false);
+            if (endOffset >= spoolChannel.size()) {
+                spoolChannel.truncate(0);
+                spoolChannel.force(false);
+                replayOffset = 0;
+            } else {
+                // Events dropped while the batch was being sent may already have moved the position further
+                replayOffset = Math.max(replayOffset, endOffset);
+            }
+            writeReplayOffset();
+        } catch (IOException e) {
+            System.err.println("Error updating telemetry spool offset: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void dispose() {
+        close();
+    }
+
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.force(false);
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing telemetry spool: " + e.getMessage());
+            }
+            channel = null;
+        }
+    }
+
+    private FileChannel openChannel() throws IOException {
+        if (channel == null) {
+            Files.createDirectories(spoolFilePath.getParent());
+            channel = FileChannel.open(spoolFilePath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            replayOffset = readReplayOffset();
+            recover();
+        }
+        return channel;
+    }
+
+    // Drops a partially written record left behind by a crash so new appends start on a record boundary
+    private void recover() throws IOException {
+        long size = channel.size();
+        if (replayOffset > size) {
+            replayOffset = 0;
+        }
+        long position = replayOffset;
+        while (position < size) {
+            byte[] payload = readRecord(channel, position);
+            if (payload == null) {
+                System.out.println("Truncating torn telemetry spool record at offset " + position);
+                channel.truncate(position);
+                break;
+            }
+            position += RECORD_HEADER_BYTES + payload.length;
+        }
+    }
+
+    // Skips the oldest pending records until incomingBytes more fit under the cap, and returns how many were
+    // skipped. Unless a replay is reading the spool, the skipped records are then cut off the file.
+    private int dropOldest(FileChannel spoolChannel, long incomingBytes) throws IOException {
+        long size = spoolChannel.size();
+        int dropped = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        while (size - replayOffset + incomingBytes > maxSpoolBytes && replayOffset < size) {
+            header.clear();
+            if (!readFully(spoolChannel, header, replayOffset)) {
+                replayOffset = size;
+                break;
+            }
+            replayOffset += RECORD_HEADER_BYTES + header.getInt(0);
+            dropped++;
+        }
+        if (dropped > 0) {
+            replayOffset = Math.min(replayOffset, size);
+            writeReplayOffset();
+            if (!replaying.get()) {
+                compact();
+            }
+        }
+        return dropped;
+    }
+
+    // Copies the pending records to a new file so the spool starts at the replay position. The offset is reset
+    // first, so a crash in between replays old events again rather than losing pending ones.
+    private void compact() throws IOException {
+        Path tempFile = spoolFilePath.resolveSibling(SPOOL_FILE_NAME + ".tmp");
+        try (FileChannel tempChannel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long position = replayOffset;
+            long size = channel.size();
+            while (position < size) {
+                position += channel.transferTo(position, size - position, tempChannel);
+            }
+            tempChannel.force(false);
+        }
+        replayOffset = 0;
+        writeReplayOffset();
+        channel.close();
+        channel = null;
+        Files.move(tempFile, spoolFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static byte[] readRecord(FileChannel spoolChannel, long position) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        if (!readFully(spoolChannel, header, position)) {
+            return null;
+        }
+        header.flip();
+        int length = header.getInt();
+        int expectedCrc = header.getInt();
+        if (length < 0 || length > MAX_RECORD_BYTES) {
+            return null;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        if (!readFully(spoolChannel, payload, position + RECORD_HEADER_BYTES)) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload.array());
+        if ((int) crc.getValue() != expectedCrc) {
+            return null;
+        }
+        return payload.array();
+    }
+
+    private static boolean readFully(FileChannel spoolChannel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = spoolChannel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long readReplayOffset() {
+        try {
+            if (Files.exists(offsetFilePath)) {
+                return Long.parseLong(Files.readString(offsetFilePath).trim());
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Error reading telemetry spool offset, replaying from the start: " + e.getMessage());
+        }
+        return 0;
+    }
+
+    private void writeReplayOffset() throws IOException {
+        Path tempFile = offsetFilePath.resolveSibling(OFFSET_FILE_NAME + ".tmp");
+        Files.writeString(tempFile, Long.toString(replayOffset));
+        Files.move(tempFile, offsetFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,30 @@
+import importlib.util
+import py_compile
+import sys
+
+# Long-lived compile worker. Each request is one line on stdin: "<source file>\t<target file>".
+# Each request is answered with one line on stdout: "OK" or "ERR <message>". A line "QUIT" or EOF stops the worker.
+# A line "MAGIC" is answered with "OK <hex>", the bytecode magic number of this interpreter.
+
+for line in sys.stdin:
+    line = line.rstrip('\n')
+    if not line:
+        continue
+    if line == 'QUIT':
+        break
+    if line == 'MAGIC':
+        sys.stdout.write('OK ' + importlib.util.MAGIC_NUMBER.hex() + '\n')
+        sys.stdout.flush()
+        continue
+
+    try:
+        source_file, target_file = line.split('\t', 1)
+        py_compile.compile(source_file, cfile=target_file, doraise=True)
+        reply = 'OK'
+    except py_compile.PyCompileError as e:
+        reply = 'ERR ' + e.msg
+    except Exception as e:
+        reply = 'ERR ' + str(e)
+
+    sys.stdout.write(reply.replace('\r', ' ').replace('\n', ' ') + '\n')
+    sys.stdout.flush()
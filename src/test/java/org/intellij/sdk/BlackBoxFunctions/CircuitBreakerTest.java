@@ -0,0 +1,83 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+    private static void fail(CircuitBreaker breaker, int times) {
+        for (int i = 0; i < times; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.recordFailure();
+        }
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60_000);
+        fail(breaker, 2);
+        assertFalse(breaker.isOpen());
+
+        fail(breaker, 1);
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.tryAcquire());
+        assertTrue(breaker.getRemainingOpenMillis() > 0);
+    }
+
+    @Test
+    public void successResetsTheFailureCount() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60_000);
+        fail(breaker, 2);
+        assertTrue(breaker.tryAcquire());
+        breaker.recordSuccess();
+
+        fail(breaker, 2);
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    public void letsOneTrialThroughOnceTheOpenTimeHasPassed() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 0);
+        fail(breaker, 1);
+
+        assertTrue(breaker.tryAcquire());
+        // Only one trial at a time while half open
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    public void successfulTrialClosesTheBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 0);
+        fail(breaker, 1);
+        assertTrue(breaker.tryAcquire());
+        breaker.recordSuccess();
+
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void failedTrialReopensTheBreaker() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(5, 100);
+        fail(breaker, 5);
+        assertTrue(breaker.isOpen());
+        Thread.sleep(150);
+
+        // One failed trial is enough, the threshold does not apply while half open
+        assertTrue(breaker.tryAcquire());
+        breaker.recordFailure();
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    public void releasedTrialLetsAnotherOneThrough() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 0);
+        fail(breaker, 1);
+        assertTrue(breaker.tryAcquire());
+        breaker.release();
+
+        assertTrue(breaker.tryAcquire());
+    }
+}
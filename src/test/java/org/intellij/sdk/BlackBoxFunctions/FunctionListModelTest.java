@@ -0,0 +1,84 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class FunctionListModelTest {
+    private final FunctionListModel model = new FunctionListModel();
+    private final List<String> events = new ArrayList<>();
+
+    private static FunctionRecord record(String name) {
+        return new FunctionRecord("def " + name + "():", name, "", "uid-" + name, 0);
+    }
+
+    @Before
+    public void setUp() {
+        model.setAll(List.of(record("a"), record("b"), record("c"), record("d"), record("e")));
+        model.addListDataListener(new ListDataListener() {
+            @Override
+            public void intervalAdded(ListDataEvent e) {
+                events.add("added " + e.getIndex0() + "-" + e.getIndex1());
+            }
+
+            @Override
+            public void intervalRemoved(ListDataEvent e) {
+                events.add("removed " + e.getIndex0() + "-" + e.getIndex1());
+            }
+
+            @Override
+            public void contentsChanged(ListDataEvent e) {
+                events.add("changed " + e.getIndex0() + "-" + e.getIndex1());
+            }
+        });
+    }
+
+    private List<String> rowNames() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < model.getSize(); i++) {
+            names.add(model.getElementAt(i).getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void narrowingTheFilterOnlyReportsTheChangedRange() {
+        model.setFilter(Set.of("a", "d", "e"));
+        assertEquals(List.of("a", "d", "e"), rowNames());
+        assertEquals(List.of("removed 1-2"), events);
+    }
+
+    @Test
+    public void wideningTheFilterOnlyReportsTheAddedRows() {
+        model.setFilter(Set.of("a", "e"));
+        events.clear();
+
+        model.setFilter(Set.of("a", "b", "e"));
+        assertEquals(List.of("a", "b", "e"), rowNames());
+        assertEquals(List.of("added 1-1"), events);
+    }
+
+    @Test
+    public void replacedRowsAreReportedAsChanged() {
+        model.setFilter(Set.of("a", "b"));
+        events.clear();
+
+        model.setFilter(Set.of("c", "d", "e"));
+        assertEquals(List.of("c", "d", "e"), rowNames());
+        assertEquals(List.of("changed 0-1", "added 2-2"), events);
+        assertEquals(2, model.indexOf("e"));
+    }
+
+    @Test
+    public void unchangedFilterReportsNothing() {
+        model.setFilter(null);
+        assertEquals(List.of(), events);
+    }
+}
@@ -0,0 +1,72 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FunctionStreamParserTest {
+    private static boolean acceptAll(FunctionStreamParser parser, String... chunks) {
+        boolean ended = false;
+        for (String chunk : chunks) {
+            ended = parser.accept(chunk);
+        }
+        return ended;
+    }
+
+    @Test
+    public void findsTheFunctionBetweenTheMarkers() {
+        FunctionStreamParser parser = new FunctionStreamParser();
+        assertTrue(acceptAll(parser, "Sure!\n# Start\ndef add(a, b):\n    return a + b\n# End\n"));
+        assertEquals("def add(a, b):\n    return a + b", parser.getFunctionText());
+    }
+
+    @Test
+    public void findsMarkersSplitAcrossChunks() {
+        FunctionStreamParser parser = new FunctionStreamParser();
+        assertFalse(acceptAll(parser, "# St", "art\ndef add(a, b):\n", "    return a + b\n# E"));
+        assertTrue(parser.isStarted());
+        assertFalse(parser.isEnded());
+        assertTrue(parser.accept("nd"));
+        assertEquals("def add(a, b):\n    return a + b", parser.getFunctionText());
+    }
+
+    @Test
+    public void reportsThePartialFunctionBeforeTheEnd() {
+        FunctionStreamParser parser = new FunctionStreamParser();
+        assertFalse(parser.accept("text before the function "));
+        assertFalse(parser.isStarted());
+        assertEquals("", parser.getFunctionText());
+
+        parser.accept("# Start\ndef add(a, b):\n");
+        assertEquals("def add(a, b):", parser.getFunctionText());
+    }
+
+    @Test
+    public void dropsTextAfterTheEndMarker() {
+        FunctionStreamParser parser = new FunctionStreamParser();
+        assertTrue(acceptAll(parser, "# Start\ndef f():\n    pass\n# End", "\nExplanation that is never shown"));
+        assertEquals("# Start\ndef f():\n    pass\n# End", parser.getRawText());
+        // Chunks after the end are ignored
+        assertTrue(parser.accept("more"));
+        assertEquals("# Start\ndef f():\n    pass\n# End", parser.getRawText());
+    }
+
+    @Test
+    public void ignoresEmptyChunks() {
+        FunctionStreamParser parser = new FunctionStreamParser();
+        assertFalse(acceptAll(parser, "", null, "# Start\n"));
+        assertTrue(parser.isStarted());
+    }
+
+    @Test
+    public void streamedFunctionMatchesTheCompleteResponse() {
+        String response = "Here you go:\n# Start\ndef add(a, b):\n    return a + b\n# End\nThis adds two numbers.";
+        FunctionStreamParser parser = new FunctionStreamParser();
+        for (int i = 0; i < response.length(); i += 3) {
+            parser.accept(response.substring(i, Math.min(i + 3, response.length())));
+        }
+        assertEquals(OpenAIClient.getFunctionFromGPT(response, "uid").getCode(), parser.getFunctionText());
+    }
+}
@@ -0,0 +1,61 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonEventEncoderTest {
+    @Test
+    public void escapesQuotesBackslashesAndControlCharacters() {
+        assertEquals("say \\\"hi\\\"", JsonEventEncoder.escape("say \"hi\""));
+        assertEquals("C:\\\\temp", JsonEventEncoder.escape("C:\\temp"));
+        assertEquals("a\\nb\\rc\\td\\be\\ff", JsonEventEncoder.escape("a\nb\rc\td\be\ff"));
+        assertEquals("\\u0000\\u001f", JsonEventEncoder.escape("\u0000\u001f"));
+    }
+
+    @Test
+    public void escapesLineAndParagraphSeparators() {
+        assertEquals("a\\u2028b\\u2029c", JsonEventEncoder.escape("a\u2028b\u2029c"));
+    }
+
+    @Test
+    public void leavesOtherTextUnchanged() {
+        assertEquals("def add(a, b): # \u00e9 \u2713", JsonEventEncoder.escape("def add(a, b): # \u00e9 \u2713"));
+        assertEquals("", JsonEventEncoder.escape(""));
+        assertEquals("", JsonEventEncoder.escape(null));
+    }
+
+    @Test
+    public void encodesEventFields() {
+        JsonEventEncoder encoder = new JsonEventEncoder();
+        assertEquals("{\"EventType\":\"Prompt\",\"AssignmentID\":\"session\",\"SubjectID\":\"uid\",\"Entry\":\"Prompt\","
+                        + "\"ClientTimestamp\":\"42\",\"X-Metadata\":\"line\\none\"}",
+                encoder.encodeEvent("Prompt", "session", "uid", 42, "line\none"));
+    }
+
+    @Test
+    public void leavesOutAMissingSubject() {
+        JsonEventEncoder encoder = new JsonEventEncoder();
+        assertEquals("{\"EventType\":\"Interaction\",\"AssignmentID\":\"session\",\"Entry\":\"Interaction\","
+                        + "\"ClientTimestamp\":\"1\",\"X-Metadata\":\"\"}",
+                encoder.encodeEvent("Interaction", "session", null, 1, null));
+    }
+
+    @Test
+    public void reusedBufferDoesNotLeakIntoTheNextEvent() {
+        JsonEventEncoder encoder = new JsonEventEncoder();
+        encoder.encodeEvent("Prompt", "session", "uid", 1, "x".repeat(100_000));
+        assertEquals("{\"EventType\":\"A\",\"AssignmentID\":\"s\",\"Entry\":\"A\",\"ClientTimestamp\":\"2\",\"X-Metadata\":\"m\"}",
+                encoder.encodeEvent("A", "s", null, 2, "m"));
+    }
+
+    @Test
+    public void joinsEventsIntoArraysAndNdjson() {
+        List<String> events = List.of("{\"a\":1}", "{\"b\":2}");
+        assertEquals("[{\"a\":1},{\"b\":2}]", JsonEventEncoder.encodeArray(events));
+        assertEquals("[]", JsonEventEncoder.encodeArray(List.of()));
+        assertEquals("{\"a\":1}\n{\"b\":2}\n", JsonEventEncoder.encodeNdjson(events));
+    }
+}
@@ -0,0 +1,78 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LibraryFileTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static String block(String name) {
+        return "# def " + name + "(x): # Prompt: Prompt for " + name + " # UID: uid-" + name + "\n"
+                + "def " + name + "(*args, **kwargs):\n    from " + name + " import " + name + "\n    return " + name + "(*args, **kwargs)\n\n";
+    }
+
+    private static Path library(Path path, String... names) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (String name : names) {
+            content.append(block(name));
+        }
+        return Files.write(path, content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> names(Path library) throws IOException {
+        return FunctionLibraryParser.parse(library).stream().map(FunctionRecord::getName).collect(Collectors.toList());
+    }
+
+    @Test
+    public void tombstonesTheBlockInPlace() throws IOException {
+        Path library = library(temporaryFolder.getRoot().toPath().resolve("generated_functions.py"), "first", "second", "third");
+        long size = Files.size(library);
+        long offset = FunctionLibraryParser.parse(library).get(1).getOffset();
+
+        assertEquals(block("second").length(), LibraryFile.tombstone(library, offset, "second", "uid-second"));
+        assertEquals(size, Files.size(library));
+        assertEquals(List.of("first", "third"), names(library));
+        assertEquals(1, FunctionLibraryParser.parseLibrary(library).getTombstoneCount());
+    }
+
+    @Test
+    public void tombstoneOfAnotherFunctionIsRefused() throws IOException {
+        Path library = library(temporaryFolder.getRoot().toPath().resolve("generated_functions.py"), "first", "second");
+        long offset = FunctionLibraryParser.parse(library).get(1).getOffset();
+
+        assertEquals(-1, LibraryFile.tombstone(library, offset, "first", "uid-first"));
+        assertEquals(-1, LibraryFile.tombstone(library, offset + 3, "second", "uid-second"));
+        assertEquals(List.of("first", "second"), names(library));
+    }
+
+    @Test
+    public void tombstoneOfAnotherVersionIsRefused() throws IOException {
+        Path library = library(temporaryFolder.getRoot().toPath().resolve("generated_functions.py"), "first");
+        assertEquals(-1, LibraryFile.tombstone(library, 0, "first", "uid-newer"));
+        assertEquals(List.of("first"), names(library));
+    }
+
+    @Test
+    public void rewriteReplacesTheFile() throws IOException {
+        Path library = library(temporaryFolder.getRoot().toPath().resolve("generated_functions.py"), "first", "second");
+
+        LibraryFile.rewrite(library, lines -> FunctionLibraryParser.removeFunction(lines, "first", "uid-first"));
+
+        assertEquals(List.of("second"), names(library));
+        try (var files = Files.list(library.getParent())) {
+            assertTrue(files.allMatch(library::equals));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LibraryIndexTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static FunctionRecord record(String name, long offset) {
+        return new FunctionRecord("def " + name + "(x):", name, "Prompt for " + name, "uid-" + name, offset);
+    }
+
+    private static List<String> names(FunctionLibraryParser.ParsedLibrary library) {
+        return library.getRecords().stream().map(FunctionRecord::getName).collect(Collectors.toList());
+    }
+
+    private static void appendToSource(Path source, String text) throws IOException {
+        Files.write(source, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    @Test
+    public void readsWhatWasWritten() throws IOException {
+        Path source = temporaryFolder.newFile("generated_functions.py").toPath();
+        Path index = temporaryFolder.getRoot().toPath().resolve("plugin").resolve(LibraryIndex.INDEX_FILE_NAME);
+        appendToSource(source, "# library\n");
+
+        assertTrue(LibraryIndex.write(index, source, List.of(record("first", 0), record("second", 100)), 3));
+
+        FunctionLibraryParser.ParsedLibrary library = LibraryIndex.read(index, source);
+        assertNotNull(library);
+        assertEquals(List.of("first", "second"), names(library));
+        assertEquals(3, library.getTombstoneCount());
+        FunctionRecord second = library.getRecords().get(1);
+        assertEquals("def second(x):", second.getDef());
+        assertEquals("Prompt for second", second.getPrompt());
+        assertEquals("uid-second", second.getUid());
+        assertEquals(100, second.getOffset());
+    }
+
+    @Test
+    public void appliesAppendedAdditionsAndRemovals() throws IOException {
+        Path source = temporaryFolder.newFile("generated_functions.py").toPath();
+        Path index = temporaryFolder.getRoot().toPath().resolve(LibraryIndex.INDEX_FILE_NAME);
+        appendToSource(source, "# library\n");
+        assertTrue(LibraryIndex.write(index, source, List.of(record("first", 0), record("second", 100)), 0));
+        long baseIndexSize = Files.size(index);
+
+        appendToSource(source, "# def third(x):\n");
+        assertTrue(LibraryIndex.appendRecord(index, source, record("third", 200), 0));
+        assertTrue(LibraryIndex.appendRemoval(index, source, "first", 1));
+
+        FunctionLibraryParser.ParsedLibrary library = LibraryIndex.read(index, source);
+        assertNotNull(library);
+        assertEquals(List.of("second", "third"), names(library));
+        assertEquals(1, library.getTombstoneCount());
+        assertEquals(200, library.getRecords().get(1).getOffset());
+        // Only the two entries were added, the base records were not written again
+        assertTrue(Files.size(index) - baseIndexSize < 200);
+    }
+
+    @Test
+    public void staleIndexIsNotUsed() throws IOException {
+        Path source = temporaryFolder.newFile("generated_functions.py").toPath();
+        Path index = temporaryFolder.getRoot().toPath().resolve(LibraryIndex.INDEX_FILE_NAME);
+        appendToSource(source, "# library\n");
+        assertTrue(LibraryIndex.write(index, source, List.of(record("first", 0)), 0));
+
+        appendToSource(source, "# def changed(x):\n");
+        assertNull(LibraryIndex.read(index, source));
+    }
+
+    @Test
+    public void truncatedDeltaInvalidatesTheIndex() throws IOException {
+        Path source = temporaryFolder.newFile("generated_functions.py").toPath();
+        Path index = temporaryFolder.getRoot().toPath().resolve(LibraryIndex.INDEX_FILE_NAME);
+        appendToSource(source, "# library\n");
+        assertTrue(LibraryIndex.write(index, source, List.of(record("first", 0)), 0));
+        assertTrue(LibraryIndex.appendRecord(index, source, record("second", 50), 0));
+
+        byte[] bytes = Files.readAllBytes(index);
+        Files.write(index, Arrays.copyOf(bytes, bytes.length - 3));
+        assertNull(LibraryIndex.read(index, source));
+    }
+
+    @Test
+    public void corruptedRecordInvalidatesTheIndex() throws IOException {
+        Path source = temporaryFolder.newFile("generated_functions.py").toPath();
+        Path index = temporaryFolder.getRoot().toPath().resolve(LibraryIndex.INDEX_FILE_NAME);
+        appendToSource(source, "# library\n");
+        assertTrue(LibraryIndex.write(index, source, List.of(record("first", 0)), 0));
+
+        byte[] bytes = Files.readAllBytes(index);
+        String content = new String(bytes, StandardCharsets.ISO_8859_1);
+        int promptPosition = content.indexOf("Prompt for first");
+        bytes[promptPosition] = 'p';
+        Files.write(index, bytes);
+        assertNull(LibraryIndex.read(index, source));
+    }
+}
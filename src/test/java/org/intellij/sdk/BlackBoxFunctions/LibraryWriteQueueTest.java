@@ -0,0 +1,89 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import com.intellij.openapi.project.Project;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LibraryWriteQueueTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path libraryFilePath;
+    private LibraryWriteQueue writeQueue;
+
+    @Before
+    public void setUp() {
+        String basePath = temporaryFolder.getRoot().getAbsolutePath();
+        libraryFilePath = temporaryFolder.getRoot().toPath().resolve(PathManager.FUNCTION_MANAGER_FILE_NAME);
+        // The queue only needs the project's base path
+        Project project = (Project) Proxy.newProxyInstance(Project.class.getClassLoader(), new Class<?>[]{Project.class},
+                (proxy, method, args) -> method.getName().equals("getBasePath") ? basePath : null);
+        writeQueue = new LibraryWriteQueue(project);
+    }
+
+    @After
+    public void tearDown() {
+        writeQueue.dispose();
+    }
+
+    private static String entry(String name, String uid) {
+        return "# def " + name + "(x): # Prompt: Prompt for " + name + " # UID: " + uid + "\n"
+                + "def " + name + "(*args, **kwargs):\n    from " + name + " import " + name + "\n    return " + name + "(*args, **kwargs)\n\n";
+    }
+
+    private List<String> uids() throws IOException {
+        return FunctionLibraryParser.parse(libraryFilePath).stream().map(FunctionRecord::getUid).collect(Collectors.toList());
+    }
+
+    @Test
+    public void deleteTombstonesTheBlockAtItsOffset() throws Exception {
+        writeQueue.append(entry("first", "uid-1")).get(5, TimeUnit.SECONDS);
+        long offset = writeQueue.append(entry("second", "uid-2")).get(5, TimeUnit.SECONDS);
+
+        assertTrue(writeQueue.delete(offset, "second", "uid-2").get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("uid-1"), uids());
+    }
+
+    @Test
+    public void deletingAPendingFunctionKeepsTheVersionThatReplacesIt() throws Exception {
+        writeQueue.append(entry("other", "uid-other")).get(5, TimeUnit.SECONDS);
+
+        // The first version's write is still pending when it is deleted, so its offset is not known yet, and the
+        // new version is queued right after the delete
+        LibraryWriteQueue.AppendSlot firstVersion = writeQueue.reserveAppend();
+        var deleted = writeQueue.delete(-1, "f", "uid-old");
+        LibraryWriteQueue.AppendSlot secondVersion = writeQueue.reserveAppend();
+        firstVersion.fill(entry("f", "uid-old"));
+        var secondOffset = secondVersion.fill(entry("f", "uid-new"));
+
+        assertFalse(deleted.get(5, TimeUnit.SECONDS));
+        secondOffset.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("uid-other", "uid-new"), uids());
+    }
+
+    @Test
+    public void staleOffsetDoesNotDeleteANewerVersion() throws Exception {
+        long oldOffset = writeQueue.append(entry("f", "uid-old")).get(5, TimeUnit.SECONDS);
+        writeQueue.append(entry("f", "uid-new")).get(5, TimeUnit.SECONDS);
+        // The old version is gone and the new one now sits at its offset
+        assertTrue(writeQueue.delete(oldOffset, "f", "uid-old").get(5, TimeUnit.SECONDS));
+        writeQueue.rewrite(FunctionLibraryParser::removeTombstones).get(5, TimeUnit.SECONDS);
+
+        assertFalse(writeQueue.delete(oldOffset, "f", "uid-old").get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("uid-new"), uids());
+    }
+}
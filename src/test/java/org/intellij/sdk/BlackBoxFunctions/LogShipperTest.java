@@ -0,0 +1,62 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LogShipperTest {
+    private HttpServer server;
+    private String url;
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/log", exchange -> {
+            received.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/log";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void eventsArePostedOneObjectPerRequestByDefault() throws Exception {
+        LogShipper shipper = new LogShipper(url, "test", null, null);
+        try {
+            assertTrue(shipper.submit("{\"n\":1}"));
+            assertTrue(shipper.submit("{\"n\":2}"));
+            assertEquals("{\"n\":1}", received.poll(5, TimeUnit.SECONDS));
+            assertEquals("{\"n\":2}", received.poll(5, TimeUnit.SECONDS));
+        } finally {
+            shipper.shutdown();
+        }
+    }
+
+    @Test
+    public void eventsArePostedAsAnArrayWhenEnabled() throws Exception {
+        LogShipper shipper = new LogShipper(url, "test", null, true, null);
+        assertTrue(shipper.submit("{\"n\":1}"));
+        assertTrue(shipper.submit("{\"n\":2}"));
+        // Shutting down flushes both events as one batch
+        shipper.shutdown();
+        assertEquals("[{\"n\":1},{\"n\":2}]", received.poll(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,181 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.sashirestela.openai.domain.chat.Chat;
+import io.github.sashirestela.openai.domain.chat.ChatRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OpenAIClientTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final FakeCompletions completions = new FakeCompletions();
+    private PromptLogging promptLogging;
+    private OpenAIClient client;
+
+    @Before
+    public void setUp() {
+        // Nothing listens on the discard port, events are dropped after the failed send
+        promptLogging = new PromptLogging(new LogShipper("http://127.0.0.1:9/log", "test", null, null));
+        client = new OpenAIClient(promptLogging, null, true, () -> completions);
+    }
+
+    @After
+    public void tearDown() {
+        promptLogging.dispose();
+    }
+
+    // Answers every streamed completion with the future the test completes
+    private static class FakeCompletions implements ChatCompletions {
+        private final List<CompletableFuture<Stream<Chat>>> streams = new CopyOnWriteArrayList<>();
+
+        @Override
+        public CompletableFuture<Chat> complete(Object owner, ChatRequest chatRequest, int promptTokens, int maxCompletionTokens) {
+            throw new UnsupportedOperationException("Only streamed completions are expected");
+        }
+
+        @Override
+        public CompletableFuture<Stream<Chat>> completeStream(Object owner, ChatRequest chatRequest, int promptTokens, int maxCompletionTokens) {
+            CompletableFuture<Stream<Chat>> stream = new CompletableFuture<>();
+            streams.add(stream);
+            return stream;
+        }
+
+        @Override
+        public <T> CompletableFuture<T> enforceDeadline(CompletableFuture<T> future) {
+            return future;
+        }
+    }
+
+    private static Chat chunk(String content) throws IOException {
+        return MAPPER.readValue("{\"choices\":[{\"index\":0,\"message\":{\"content\":" + MAPPER.writeValueAsString(content) + "}}]}", Chat.class);
+    }
+
+    private static Stream<Chat> functionStream() throws IOException {
+        return Stream.of(chunk("# Start\n"), chunk("def add(a, b):\n"), chunk("    return a + b\n"), chunk("# End"));
+    }
+
+    @Test
+    public void identicalPendingPromptsShareOneCompletion() throws Exception {
+        List<String> firstPartials = new CopyOnWriteArrayList<>();
+        List<String> secondPartials = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<OpenAIClient.ProcessedChoice> first = client.sendPromptToOpenAIAsync("Add two numbers", firstPartials::add);
+        assertTrue(client.isPending("Add two numbers"));
+        CompletableFuture<OpenAIClient.ProcessedChoice> second = client.sendPromptToOpenAIAsync("  add two NUMBERS ", secondPartials::add);
+        assertEquals(1, completions.streams.size());
+
+        completions.streams.get(0).complete(functionStream());
+
+        OpenAIClient.ProcessedChoice firstChoice = first.get(5, TimeUnit.SECONDS);
+        OpenAIClient.ProcessedChoice secondChoice = second.get(5, TimeUnit.SECONDS);
+        assertEquals("def add(a, b):", firstChoice.getDef());
+        assertEquals(firstChoice.getUid(), secondChoice.getUid());
+        assertEquals("def add(a, b):\n    return a + b", firstPartials.get(firstPartials.size() - 1));
+        assertEquals(firstPartials, secondPartials);
+        assertFalse(client.isPending("Add two numbers"));
+    }
+
+    @Test
+    public void streamIsNotReadOnTheThreadThatOpenedIt() throws Exception {
+        List<Thread> readingThreads = new CopyOnWriteArrayList<>();
+        CompletableFuture<OpenAIClient.ProcessedChoice> choice = client.sendPromptToOpenAIAsync("Add two numbers", text -> readingThreads.add(Thread.currentThread()));
+
+        completions.streams.get(0).complete(functionStream());
+
+        assertEquals("def add(a, b):", choice.get(5, TimeUnit.SECONDS).getDef());
+        assertFalse(readingThreads.isEmpty());
+        assertFalse(readingThreads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void cancellingOneCallerKeepsTheSharedRequestForTheOther() throws Exception {
+        CompletableFuture<OpenAIClient.ProcessedChoice> first = client.sendPromptToOpenAIAsync("Add two numbers", text -> { });
+        CompletableFuture<OpenAIClient.ProcessedChoice> second = client.sendPromptToOpenAIAsync("Add two numbers", text -> { });
+
+        first.cancel(true);
+        assertFalse(completions.streams.get(0).isCancelled());
+        completions.streams.get(0).complete(functionStream());
+        assertEquals("def add(a, b):", second.get(5, TimeUnit.SECONDS).getDef());
+    }
+
+    @Test
+    public void cancellingEveryCallerCancelsTheRequest() {
+        CompletableFuture<OpenAIClient.ProcessedChoice> first = client.sendPromptToOpenAIAsync("Add two numbers", text -> { });
+        CompletableFuture<OpenAIClient.ProcessedChoice> second = client.sendPromptToOpenAIAsync("Add two numbers", text -> { });
+
+        first.cancel(true);
+        second.cancel(true);
+        assertTrue(completions.streams.get(0).isCancelled());
+        assertFalse(client.isPending("Add two numbers"));
+
+        // A later submission sends a new request
+        client.sendPromptToOpenAIAsync("Add two numbers", text -> { });
+        assertEquals(2, completions.streams.size());
+    }
+
+    @Test
+    public void cancellingClosesAnOpenStream() throws Exception {
+        // A stream whose next chunk never arrives, like a stalled response, until it is closed
+        Chat endOfStream = chunk("");
+        BlockingQueue<Chat> chunks = new LinkedBlockingQueue<>();
+        CountDownLatch closed = new CountDownLatch(1);
+        Iterator<Chat> iterator = new Iterator<>() {
+            private Chat next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = chunks.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+                return next != endOfStream;
+            }
+
+            @Override
+            public Chat next() {
+                Chat chunk = next;
+                next = null;
+                return chunk;
+            }
+        };
+        Stream<Chat> stalledStream = StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+                .onClose(() -> {
+                    closed.countDown();
+                    chunks.add(endOfStream);
+                });
+
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<OpenAIClient.ProcessedChoice> choice = client.sendPromptToOpenAIAsync("Add two numbers", text -> started.countDown());
+        chunks.add(chunk("# Start\ndef add(a, b):\n"));
+        completions.streams.get(0).complete(stalledStream);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        choice.cancel(true);
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,100 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResilientCallerTest {
+    private static ResilientCaller caller(int maxRetries) {
+        return new ResilientCaller(1000, 5000, maxRetries, 1, 5, new CircuitBreaker(10, 1000));
+    }
+
+    @Test
+    public void networkFailuresAndTimeoutsAreRetryable() {
+        assertTrue(ResilientCaller.isRetryable(new IOException("Connection reset")));
+        assertTrue(ResilientCaller.isRetryable(new TimeoutException()));
+        assertTrue(ResilientCaller.isRetryable(new CompletionException(new IOException("Broken pipe"))));
+    }
+
+    @Test
+    public void rateLimitsAndServerErrorsAreRetryable() {
+        assertTrue(ResilientCaller.isRetryable(new RuntimeException("Error status code 429: {\"error\":{\"type\":\"requests\"}}")));
+        assertTrue(ResilientCaller.isRetryable(new RuntimeException("HTTP status 503 Service Unavailable")));
+        assertTrue(ResilientCaller.isRetryable(new RuntimeException("{\"error\":{\"code\":\"rate_limit_exceeded\"}}")));
+        assertTrue(ResilientCaller.isRetryable(new RuntimeException("The engine is currently overloaded")));
+    }
+
+    @Test
+    public void quotaAndRequestErrorsAreNotRetryable() {
+        // insufficient_quota comes with a 429 but waiting does not help
+        assertFalse(ResilientCaller.isRetryable(new RuntimeException("status 429: {\"error\":{\"code\":\"insufficient_quota\"}}")));
+        assertFalse(ResilientCaller.isRetryable(new RuntimeException("status 401: Incorrect API key provided")));
+        assertFalse(ResilientCaller.isRetryable(new RuntimeException("status 400: invalid_request_error")));
+        assertFalse(ResilientCaller.isRetryable(new IllegalStateException("function took 4290 ms")));
+    }
+
+    @Test
+    public void retryAfterIsReadFromTheMessage() {
+        assertEquals(1500, ResilientCaller.retryAfterMillis(new RuntimeException("Rate limit reached. Please try again in 1.5s.")));
+        assertEquals(20, ResilientCaller.retryAfterMillis(new RuntimeException("Please try again in 20ms.")));
+        assertEquals(7000, ResilientCaller.retryAfterMillis(new RuntimeException("retry-after: 7")));
+        assertEquals(2000, ResilientCaller.retryAfterMillis(new CompletionException(new RuntimeException("Try again in 2s"))));
+        assertEquals(0, ResilientCaller.retryAfterMillis(new RuntimeException("status 500")));
+    }
+
+    @Test
+    public void retryableFailuresAreRetriedUntilOneSucceeds() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<String> result = caller(3).call(() -> attempts.incrementAndGet() < 3
+                ? CompletableFuture.failedFuture(new IOException("Connection reset"))
+                : CompletableFuture.completedFuture("ok"));
+
+        assertEquals("ok", result.get(5, TimeUnit.SECONDS));
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void nonRetryableFailuresAreNotRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<String> result = caller(3).call(() -> {
+            attempts.incrementAndGet();
+            return CompletableFuture.failedFuture(new RuntimeException("status 401: Incorrect API key provided"));
+        });
+
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            fail("Expected the call to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("401"));
+        }
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void retriesStopAfterMaxRetries() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<String> result = caller(2).call(() -> {
+            attempts.incrementAndGet();
+            return CompletableFuture.failedFuture(new IOException("Connection reset"));
+        });
+
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            fail("Expected the call to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertEquals(3, attempts.get());
+    }
+}
@@ -0,0 +1,66 @@
+package org.intellij.sdk.BlackBoxFunctions;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TelemetrySpoolTest {
+    // Room for two of the ten byte events below, each with its eight byte record header
+    private static final long MAX_SPOOL_BYTES = 36;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path spoolDirPath;
+    private TelemetrySpool spool;
+
+    @Before
+    public void setUp() {
+        spoolDirPath = temporaryFolder.getRoot().toPath();
+        spool = new TelemetrySpool(spoolDirPath, MAX_SPOOL_BYTES);
+    }
+
+    @After
+    public void tearDown() {
+        spool.close();
+    }
+
+    @Test
+    public void fullSpoolDropsTheOldestEvents() throws Exception {
+        spool.append(List.of("{\"n\":\"1\"}"));
+        spool.append(List.of("{\"n\":\"2\"}"));
+        spool.append(List.of("{\"n\":\"3\"}"));
+
+        assertEquals(List.of("{\"n\":\"2\"}", "{\"n\":\"3\"}"), spool.readBatch(10).getEvents());
+        assertTrue(Files.size(spoolDirPath.resolve(TelemetrySpool.SPOOL_FILE_NAME)) <= MAX_SPOOL_BYTES);
+    }
+
+    @Test
+    public void batchLargerThanTheSpoolKeepsItsNewestEvents() {
+        spool.append(List.of("{\"n\":\"1\"}", "{\"n\":\"2\"}", "{\"n\":\"3\"}"));
+
+        assertEquals(List.of("{\"n\":\"2\"}", "{\"n\":\"3\"}"), spool.readBatch(10).getEvents());
+    }
+
+    @Test
+    public void eventsDroppedDuringAReplayAreNotSentAgain() {
+        spool.append(List.of("{\"n\":\"1\"}", "{\"n\":\"2\"}"));
+        assertTrue(spool.beginReplay());
+        TelemetrySpool.Batch batch = spool.readBatch(1);
+        // Dropping both pending events while the first one is being sent
+        spool.append(List.of("{\"n\":\"3\"}", "{\"n\":\"4\"}"));
+        spool.acknowledge(batch.getEndOffset());
+        spool.endReplay();
+
+        assertEquals(List.of("{\"n\":\"3\"}", "{\"n\":\"4\"}"), spool.readBatch(10).getEvents());
+    }
+}